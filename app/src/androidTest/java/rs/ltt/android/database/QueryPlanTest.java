@@ -0,0 +1,89 @@
+package rs.ltt.android.database;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs EXPLAIN QUERY PLAN on the queries declared in the per account DAOs and fails if any of
+ * them falls back to a full table scan on one of the large tables.
+ * <p>
+ * Room retains the {@link androidx.room.Query} annotation only in class files so the statements
+ * are read from an asset that DaoQueriesTest keeps in sync with the DAOs. Statements that
+ * intentionally touch every row (for example 'delete from email') are marked there and skipped.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest {
+
+    private static final Pattern FULL_TABLE_SCAN = Pattern.compile("^SCAN (TABLE )?(email|query_item|thread_item)( .*)?$");
+
+    private static final String QUERIES = "dao_queries.txt";
+
+    private LttrsDatabase database;
+
+    @Before
+    public void createDatabase() {
+        database = Room.inMemoryDatabaseBuilder(
+                InstrumentationRegistry.getInstrumentation().getTargetContext(),
+                LttrsDatabase.class
+        ).build();
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+    }
+
+    @Test
+    public void noFullTableScans() throws IOException {
+        final SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        final List<String> violations = new ArrayList<>();
+        for (final String query : readQueries()) {
+            try (final Cursor cursor = db.query("EXPLAIN QUERY PLAN " + query)) {
+                final int detailIndex = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) {
+                    final String detail = cursor.getString(detailIndex);
+                    if (FULL_TABLE_SCAN.matcher(detail).matches()) {
+                        violations.add(detail + " in: " + query);
+                    }
+                }
+            }
+        }
+        Assert.assertTrue("Full table scans found:\n" + Joiner.on('\n').join(violations), violations.isEmpty());
+    }
+
+    private static List<String> readQueries() throws IOException {
+        final List<String> queries = new ArrayList<>();
+        final Context context = InstrumentationRegistry.getInstrumentation().getContext();
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(context.getAssets().open(QUERIES), Charsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("!")) {
+                    continue;
+                }
+                queries.add(line);
+            }
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,137 @@
+package rs.ltt.android.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.common.base.Strings;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import rs.ltt.android.util.ConsistentColorGeneration;
+
+/**
+ * Compares how many avatars per second can be bound and drawn with the drawable that computed
+ * colour and letter on every bind (kept here as {@link UncachedAvatarDrawable}) and with the
+ * {@link AvatarCache} backed {@link AvatarDrawable}. The results are logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AvatarBindBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AvatarBindBenchmark.class);
+
+    private static final int SENDERS = 200;
+    private static final int BINDS = 20_000;
+    private static final int SIZE = 120;
+
+    private final Bitmap target = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    private final Canvas canvas = new Canvas(target);
+
+    @Test
+    public void bindsPerSecond() {
+        final AvatarCache cache = new AvatarCache(512, 8 * 1024 * 1024);
+        final double uncached = measure((name, key) -> new UncachedAvatarDrawable(name, key));
+        final double cached = measure((name, key) -> new AvatarDrawable(cache, 0, name, key));
+        LOGGER.info("avatar binds per second: uncached={} cached={}", Math.round(uncached), Math.round(cached));
+    }
+
+    @Test
+    public void cachedAvatarMatchesUncached() {
+        final AvatarCache cache = new AvatarCache(16, 1024 * 1024);
+        draw(new UncachedAvatarDrawable("Ash", "ash@example.com"));
+        final int expected = target.getPixel(SIZE / 2, SIZE / 8);
+        draw(new AvatarDrawable(cache, 0, "Ash", "ash@example.com"));
+        Assert.assertEquals(expected, target.getPixel(SIZE / 2, SIZE / 8));
+    }
+
+    private double measure(final DrawableFactory factory) {
+        //warm up
+        for (int i = 0; i < SENDERS; ++i) {
+            draw(factory.create(name(i), key(i)));
+        }
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BINDS; ++i) {
+            final int sender = i % SENDERS;
+            draw(factory.create(name(sender), key(sender)));
+        }
+        final long duration = SystemClock.elapsedRealtimeNanos() - start;
+        return BINDS / (duration / 1_000_000_000.0);
+    }
+
+    private void draw(final Drawable drawable) {
+        target.eraseColor(Color.TRANSPARENT);
+        drawable.setBounds(0, 0, SIZE, SIZE);
+        drawable.draw(canvas);
+    }
+
+    private static String name(final int i) {
+        return "Sender " + (char) ('A' + i % 26) + i;
+    }
+
+    private static String key(final int i) {
+        return "sender" + i + "@example.com";
+    }
+
+    private interface DrawableFactory {
+        Drawable create(String name, String key);
+    }
+
+    private static class UncachedAvatarDrawable extends ColorDrawable {
+
+        private static final Pattern LETTER_PATTERN = Pattern.compile("\\p{L}\\p{M}*");
+
+        private final Paint paint;
+        private final Paint textPaint;
+        private final String letter;
+
+        UncachedAvatarDrawable(String name, String key) {
+            paint = new Paint();
+            paint.setColor(key == null ? 0xff757575 : ConsistentColorGeneration.rgbFromKey(key));
+            paint.setAntiAlias(true);
+            textPaint = new Paint();
+            textPaint.setColor(Color.WHITE);
+            textPaint.setTextAlign(Paint.Align.CENTER);
+            textPaint.setAntiAlias(true);
+            textPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.NORMAL));
+            final Matcher matcher = LETTER_PATTERN.matcher(Strings.nullToEmpty(name));
+            this.letter = matcher.find() ? matcher.group().toUpperCase(Locale.ROOT) : null;
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            final float midX = getBounds().width() / 2.0f;
+            final float midY = getBounds().height() / 2.0f;
+            final float radius = Math.min(getBounds().width(), getBounds().height()) / 2.0f;
+            textPaint.setTextSize(radius);
+            final Rect r = new Rect();
+            canvas.getClipBounds(r);
+            final int cHeight = r.height();
+            final int cWidth = r.width();
+            canvas.drawCircle(midX, midY, radius, paint);
+            if (letter == null) {
+                return;
+            }
+            textPaint.setTextAlign(Paint.Align.LEFT);
+            textPaint.getTextBounds(letter, 0, letter.length(), r);
+            float x = cWidth / 2f - r.width() / 2f - r.left;
+            float y = cHeight / 2f + r.height() / 2f - r.bottom;
+            canvas.drawText(letter, x, y, textPaint);
+        }
+    }
+}
@@ -18,43 +18,41 @@ package rs.ltt.android;
 import android.app.Activity;
 import android.app.Application;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import rs.ltt.android.database.AccountRegistry;
 import rs.ltt.android.database.AppDatabase;
+import rs.ltt.android.database.LttrsDatabase;
 
 public class LttrsApplication extends Application {
 
     private final Logger LOGGER = LoggerFactory.getLogger(LttrsApplication.class);
 
-    private Long mostRecentlySelectedAccountId = null;
-
-    private final static Object CACHE_LOCK = new Object();
+    public ListenableFuture<Boolean> noAccountsConfigured() {
+        return Futures.transform(
+                getAccountRegistry().hasAccounts(),
+                hasAccounts -> !hasAccounts,
+                MoreExecutors.directExecutor()
+        );
+    }
 
-    public boolean noAccountsConfigured() {
-        synchronized (CACHE_LOCK) {
-            if (mostRecentlySelectedAccountId != null) {
-                return false;
-            }
-        }
-        return !AppDatabase.getInstance(this).accountDao().hasAccounts();
+    public ListenableFuture<Long> getMostRecentlySelectedAccountId() {
+        return getAccountRegistry().getMostRecentlySelectedAccountId();
     }
 
-    public Long getMostRecentlySelectedAccountId() {
-        synchronized (CACHE_LOCK) {
-            if (this.mostRecentlySelectedAccountId == null) {
-                final Long id = AppDatabase.getInstance(this).accountDao().getMostRecentlySelectedAccountId();
-                LOGGER.info("read most recently selected account id from database: {}", id);
-                this.mostRecentlySelectedAccountId = id;
-            }
-            return mostRecentlySelectedAccountId;
-        }
+    private AccountRegistry getAccountRegistry() {
+        return AppDatabase.getInstance(this).getAccountRegistry();
     }
 
-    public void invalidateMostRecentlySelectedAccountId() {
-        synchronized (CACHE_LOCK) {
-            this.mostRecentlySelectedAccountId = null;
-        }
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        LttrsDatabase.onTrimMemory(level);
     }
 
     public static LttrsApplication get(final Application application) {
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.cache;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import rs.ltt.jmap.mua.cache.exception.CacheConflictException;
+import rs.ltt.jmap.mua.cache.exception.CorruptCacheException;
+
+/**
+ * Counters for the boundary between the JMAP client and storage: wall time of every
+ * {@link DatabaseCache} method, duration of the write transactions, rows written and deleted per
+ * table and the number of conflicts. One instance is shared by all DatabaseCache instances of an
+ * account database.
+ */
+public class CacheMetrics {
+
+    private static final long[] BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final long createdAt = SystemClock.elapsedRealtime();
+
+    private final Map<String, Histogram> methods = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> transactions = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> rowsWritten = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> rowsDeleted = new ConcurrentHashMap<>();
+    private final AtomicLong cacheConflicts = new AtomicLong();
+    private final AtomicLong corruptCaches = new AtomicLong();
+
+    public static long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void recordMethod(final String method, final long start) {
+        histogram(methods, method).record(SystemClock.elapsedRealtimeNanos() - start);
+    }
+
+    public void recordTransaction(final String method, final long start) {
+        histogram(transactions, method).record(SystemClock.elapsedRealtimeNanos() - start);
+    }
+
+    public void recordWritten(final String table, final long rows) {
+        if (rows > 0) {
+            counter(rowsWritten, table).addAndGet(rows);
+        }
+    }
+
+    public void recordDeleted(final String table, final long rows) {
+        if (rows > 0) {
+            counter(rowsDeleted, table).addAndGet(rows);
+        }
+    }
+
+    public void recordFailure(final Throwable throwable) {
+        if (throwable instanceof CacheConflictException) {
+            cacheConflicts.incrementAndGet();
+        } else if (throwable instanceof CorruptCacheException) {
+            corruptCaches.incrementAndGet();
+        }
+    }
+
+    public Map<String, Histogram> getMethods() {
+        return ImmutableSortedMap.copyOf(methods);
+    }
+
+    public Map<String, Histogram> getTransactions() {
+        return ImmutableSortedMap.copyOf(transactions);
+    }
+
+    public Map<String, Long> getRowsWritten() {
+        return snapshot(rowsWritten);
+    }
+
+    public Map<String, Long> getRowsDeleted() {
+        return snapshot(rowsDeleted);
+    }
+
+    public long getCacheConflicts() {
+        return cacheConflicts.get();
+    }
+
+    public long getCorruptCaches() {
+        return corruptCaches.get();
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("uptime ").append(SystemClock.elapsedRealtime() - createdAt).append("ms\n");
+        builder.append("conflicts ").append(cacheConflicts.get())
+                .append(" corrupt ").append(corruptCaches.get()).append('\n');
+        builder.append("\n[methods]\n");
+        for (final Map.Entry<String, Histogram> entry : getMethods().entrySet()) {
+            builder.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        builder.append("\n[transactions]\n");
+        for (final Map.Entry<String, Histogram> entry : getTransactions().entrySet()) {
+            builder.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        builder.append("\n[rows written]\n");
+        for (final Map.Entry<String, Long> entry : getRowsWritten().entrySet()) {
+            builder.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        builder.append("\n[rows deleted]\n");
+        for (final Map.Entry<String, Long> entry : getRowsDeleted().entrySet()) {
+            builder.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static Histogram histogram(final Map<String, Histogram> map, final String name) {
+        return map.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    private static AtomicLong counter(final Map<String, AtomicLong> map, final String name) {
+        return map.computeIfAbsent(name, key -> new AtomicLong());
+    }
+
+    private static Map<String, Long> snapshot(final Map<String, AtomicLong> map) {
+        final ImmutableSortedMap.Builder<String, Long> builder = ImmutableSortedMap.naturalOrder();
+        for (final Map.Entry<String, AtomicLong> entry : map.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().get());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Latency histogram with fixed, roughly logarithmic bucket bounds in milliseconds. The last
+     * bucket collects everything above the largest bound.
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(final long nanos) {
+            final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MILLIS.length && millis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+                ++bucket;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max;
+            do {
+                max = maxNanos.get();
+            } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(totalNanos.get());
+        }
+
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        /**
+         * @return the number of samples per bucket; bucket i holds samples below
+         * BUCKET_BOUNDS_MILLIS[i] (and at or above the previous bound)
+         */
+        public long[] getBuckets() {
+            final long[] values = new long[buckets.length()];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = buckets.get(i);
+            }
+            return values;
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            final long count = getCount();
+            final StringBuilder builder = new StringBuilder();
+            builder.append("count=").append(count)
+                    .append(" total=").append(getTotalMillis()).append("ms")
+                    .append(" avg=").append(count == 0 ? 0 : getTotalMillis() / count).append("ms")
+                    .append(" max=").append(getMaxMillis()).append("ms [");
+            final long[] values = getBuckets();
+            for (int i = 0; i < values.length; ++i) {
+                if (values[i] == 0) {
+                    continue;
+                }
+                builder.append(i < BUCKET_BOUNDS_MILLIS.length ? "<" + BUCKET_BOUNDS_MILLIS[i] : ">=" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1])
+                        .append("ms:").append(values[i]).append(' ');
+            }
+            return builder.append(']').toString();
+        }
+    }
+}
@@ -15,17 +15,27 @@
 
 package rs.ltt.android.cache;
 
+import android.os.SystemClock;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.google.common.base.Supplier;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
 
+import rs.ltt.android.database.CacheRetention;
+import rs.ltt.android.database.DatabaseExecutor;
+import rs.ltt.android.database.InvalidationCoalescer;
 import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.database.OptimisticOverlay;
+import rs.ltt.android.database.StateSnapshot;
 import rs.ltt.android.entity.EntityType;
 import rs.ltt.android.entity.MailboxEntity;
 import rs.ltt.jmap.common.entity.Email;
@@ -55,30 +65,33 @@ public class DatabaseCache implements Cache {
 
     private final LttrsDatabase database;
 
+    private final CacheMetrics metrics;
+
     public DatabaseCache(LttrsDatabase database) {
         this.database = database;
+        this.metrics = database.getCacheMetrics();
     }
 
     @Override
     public String getIdentityState() {
-        return database.identityDao().getState(EntityType.IDENTITY);
+        return read("getIdentityState", () -> database.getStateSnapshot().getEntityState(EntityType.IDENTITY));
     }
 
     @Override
     public String getMailboxState() {
-        return database.mailboxDao().getState(EntityType.MAILBOX);
+        return read("getMailboxState", () -> database.getStateSnapshot().getEntityState(EntityType.MAILBOX));
     }
 
     @NonNull
     @Override
     public QueryStateWrapper getQueryState(@Nullable String query) {
-        return database.stateDao().getQueryStateWrapper(query);
+        return read("getQueryState", () -> database.getStateSnapshot().getQueryState(query));
     }
 
     @NonNull
     @Override
     public ObjectsState getObjectsState() {
-        return database.stateDao().getObjectsState();
+        return read("getObjectsState", () -> database.getStateSnapshot().getObjectsState());
     }
 
     @Override
@@ -88,14 +101,15 @@ public class DatabaseCache implements Cache {
         for (Mailbox mailbox : mailboxes) {
             mailboxEntities.add(MailboxEntity.of(mailbox));
         }
-        database.mailboxDao().set(mailboxEntities, mailboxTypedState.getState());
+        write("setMailboxes", () -> database.mailboxDao().set(mailboxEntities, mailboxTypedState.getState()));
+        metrics.recordWritten("mailbox", mailboxEntities.size());
     }
 
     @Override
     public void updateMailboxes(final Update<Mailbox> update,
                                 final String[] updatedProperties) throws CacheWriteException, CacheConflictException {
         try {
-            database.mailboxDao().update(update, updatedProperties);
+            write("updateMailboxes", () -> database.mailboxDao().update(update, updatedProperties));
         } catch (IllegalArgumentException e) {
             throw new CacheWriteException(e);
         }
@@ -104,21 +118,21 @@ public class DatabaseCache implements Cache {
     @Override
     public Collection<? extends IdentifiableMailboxWithRole> getSpecialMailboxes() throws NotSynchronizedException {
         //TODO ensure that mailbox state exists?
-        return database.mailboxDao().getSpecialMailboxes();
+        return read("getSpecialMailboxes", () -> database.mailboxDao().getSpecialMailboxes());
     }
 
     @Override
     public IdentifiableMailboxWithRoleAndName getMailboxByNameAndParent(String name, String parentId) throws NotSynchronizedException {
         if (parentId == null) {
-            return database.mailboxDao().getMailboxByNameWhereParentIdIsNull(name);
+            return read("getMailboxByNameAndParent", () -> database.mailboxDao().getMailboxByNameWhereParentIdIsNull(name));
         } else {
-            return database.mailboxDao().getMailboxByNameAndParent(name, parentId);
+            return read("getMailboxByNameAndParent", () -> database.mailboxDao().getMailboxByNameAndParent(name, parentId));
         }
     }
 
     @Override
     public List<? extends IdentifiableMailboxWithRoleAndName> getMailboxesByNames(String[] names) {
-        return database.mailboxDao().getMailboxesByNames(names);
+        return read("getMailboxesByNames", () -> database.mailboxDao().getMailboxesByNames(names));
     }
 
     @Override
@@ -126,7 +140,17 @@ public class DatabaseCache implements Cache {
                                     final Thread[] threads,
                                     final TypedState<Email> emailState,
                                     final Email[] emails) {
-        database.threadAndEmailDao().set(threadState, threads, emailState, emails);
+        final long start = SystemClock.elapsedRealtime();
+        final long barrier = database.getOptimisticOverlay().getVersion();
+        final int rows = transaction("setThreadsAndEmails", () -> {
+            final int written = database.threadAndEmailDao().set(threadState, threads, emailState, emails);
+            database.getStateSnapshot().refreshEntityStates();
+            return written;
+        });
+        reconcile(barrier);
+        logIngestRate("set", rows, start);
+        database.getBodyStore().scheduleGarbageCollection();
+        database.getCacheRetention().schedule();
     }
 
     @Override
@@ -134,61 +158,186 @@ public class DatabaseCache implements Cache {
                                    final Thread[] threads,
                                    final TypedState<Email> emailState,
                                    final Email[] emails) {
-        database.threadAndEmailDao().add(threadState, threads, emailState, emails);
+        final long start = SystemClock.elapsedRealtime();
+        final int rows = transaction("addThreadsAndEmail", () -> {
+            final int written = database.threadAndEmailDao().add(threadState, threads, emailState, emails);
+            database.getStateSnapshot().refreshEntityStates();
+            return written;
+        });
+        logIngestRate("add", rows, start);
+        database.getCacheRetention().schedule();
+    }
+
+    /**
+     * Runs all writes on the single writer of the account database. Readers (the paging and
+     * LiveData queries) use a separate pool and are not blocked by it in write-ahead logging mode.
+     * Once the transaction has been committed the entity states in the {@link StateSnapshot} are
+     * refreshed while still on the writer, so no other write can slip in between.
+     */
+    private void write(final String method, final Runnable runnable) {
+        transaction(method, () -> {
+            runnable.run();
+            database.getStateSnapshot().refreshEntityStates();
+            return null;
+        });
+    }
+
+    /**
+     * For writes that may drop keyword or mailbox overwrites. The barrier is taken before the
+     * transaction is queued; see {@link OptimisticOverlay#reconcile(long)}.
+     */
+    private void writeReconciled(final String method, final Runnable runnable) {
+        final long barrier = database.getOptimisticOverlay().getVersion();
+        write(method, runnable);
+        reconcile(barrier);
+    }
+
+    /**
+     * Queued on the writer once the transaction has ended, so the overlay never drops an
+     * overwrite before the rows that replace it have been committed.
+     */
+    private void reconcile(final long barrier) {
+        database.getWriterExecutor().execute(() -> database.getOptimisticOverlay().reconcile(barrier));
+    }
+
+    private void writeQuery(final String method, final String queryString, final Runnable runnable) {
+        transaction(method, () -> {
+            runnable.run();
+            database.getStateSnapshot().refreshQuery(queryString);
+            return null;
+        });
+    }
+
+    /**
+     * Records the wall time of the method (including the time spent waiting for the writer), the
+     * duration of the transaction itself and conflicts reported by the DAOs.
+     */
+    private <T> T transaction(final String method, final Callable<T> transaction) {
+        final long start = CacheMetrics.start();
+        try {
+            return database.getWriterExecutor().await(() -> {
+                final long transactionStart = CacheMetrics.start();
+                try {
+                    return database.getInvalidationCoalescer().deferrable(transaction);
+                } finally {
+                    metrics.recordTransaction(method, transactionStart);
+                }
+            });
+        } catch (final RuntimeException e) {
+            metrics.recordFailure(e);
+            throw e;
+        } finally {
+            metrics.recordMethod(method, start);
+        }
+    }
+
+    private <T> T read(final String method, final Supplier<T> supplier) {
+        final long start = CacheMetrics.start();
+        try {
+            return supplier.get();
+        } catch (final RuntimeException e) {
+            metrics.recordFailure(e);
+            throw e;
+        } finally {
+            metrics.recordMethod(method, start);
+        }
+    }
+
+    public DatabaseExecutor.Statistics getReaderStatistics() {
+        return database.getReaderExecutor().getStatistics();
+    }
+
+    public DatabaseExecutor.Statistics getWriterStatistics() {
+        return database.getWriterExecutor().getStatistics();
+    }
+
+    public CacheRetention.Statistics getStorageStatistics() {
+        return database.getCacheRetention().getStatistics();
+    }
+
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Starts a sync session. Until every open session has been closed, the invalidations of the
+     * transactions committed through this cache are merged, so observers re-query once instead of
+     * once per transaction. A merged invalidation is delayed by 750ms at most. Writes that don’t
+     * go through this cache are not delayed.
+     */
+    public InvalidationCoalescer.Session beginSyncSession() {
+        return database.getInvalidationCoalescer().begin();
+    }
+
+    private static void logIngestRate(final String operation, final int rows, final long start) {
+        final long duration = SystemClock.elapsedRealtime() - start;
+        LOGGER.info(
+                "{} threads and emails wrote {} rows in {}ms ({} rows/s)",
+                operation,
+                rows,
+                duration,
+                duration == 0 ? rows : rows * 1000 / duration
+        );
     }
 
 
     @Override
     public void updateThreads(final Update<Thread> update) throws CacheWriteException {
         LOGGER.debug("updating threads {}", update);
-        database.threadAndEmailDao().update(update);
+        writeReconciled("updateThreads", () -> database.threadAndEmailDao().update(update));
     }
 
 
     @Override
     public void updateEmails(final Update<Email> update,
                              final String[] updatedProperties) throws CacheWriteException {
-        database.threadAndEmailDao().updateEmails(update, updatedProperties);
+        writeReconciled("updateEmails", () -> database.threadAndEmailDao().updateEmails(update, updatedProperties));
+        if (update.getDestroyed().length > 0) {
+            database.getBodyStore().scheduleGarbageCollection();
+        }
     }
 
     @Override
     public void invalidateEmailThreadsAndQueries() {
-        database.stateDao().invalidateEmailThreadAndQueryStates();
+        write("invalidateEmailThreadsAndQueries", () -> {
+            database.stateDao().invalidateEmailThreadAndQueryStates();
+            database.getStateSnapshot().refreshQueries();
+        });
     }
     
     @Override
     public void invalidateMailboxes() {
-        database.stateDao().deleteState(EntityType.MAILBOX);
+        write("invalidateMailboxes", () -> database.stateDao().deleteState(EntityType.MAILBOX));
     }
 
     @Override
     public void setIdentities(final TypedState<Identity> identityTypedState,
                               final Identity[] identities) {
-        database.identityDao().set(identities, identityTypedState.getState());
+        write("setIdentities", () -> database.identityDao().set(identities, identityTypedState.getState()));
     }
 
     @Override
     public void updateIdentities(final Update<Identity> update) throws CacheWriteException {
         LOGGER.debug("updating identities {}", update);
-        database.identityDao().update(update);
+        write("updateIdentities", () -> database.identityDao().update(update));
     }
 
     @Override
     public void invalidateIdentities() {
-        database.stateDao().deleteState(EntityType.IDENTITY);
+        write("invalidateIdentities", () -> database.stateDao().deleteState(EntityType.IDENTITY));
     }
 
     @Override
     public void setQueryResult(final String queryString,
                                final QueryResult queryResult) {
-        database.queryDao().set(queryString, queryResult);
+        writeQuery("setQueryResult", queryString, () -> database.queryDao().set(queryString, queryResult));
     }
 
     @Override
     public void addQueryResult(final String queryString,
                                final String afterEmailId,
                                final QueryResult queryResult) throws CacheConflictException {
-        database.queryDao().add(queryString, afterEmailId, queryResult);
+        writeQuery("addQueryResult", queryString, () -> database.queryDao().add(queryString, afterEmailId, queryResult));
     }
 
     @Override
@@ -196,17 +345,17 @@ public class DatabaseCache implements Cache {
                                    final QueryUpdate<Email, QueryResultItem> queryUpdate,
                                    final TypedState<Email> emailTypedState) throws CacheConflictException {
         LOGGER.debug("updating query results {}", queryUpdate);
-        database.queryDao().updateQueryResults(queryString, queryUpdate, emailTypedState);
+        writeQuery("updateQueryResults", queryString, () -> database.queryDao().updateQueryResults(queryString, queryUpdate, emailTypedState));
     }
 
     @Override
     public void invalidateQueryResult(final String queryString) {
-        database.stateDao().invalidateQueryState(queryString);
+        writeQuery("invalidateQueryResult", queryString, () -> database.stateDao().invalidateQueryState(queryString));
     }
 
     @Override
     public Missing getMissing(final String query) throws CacheReadException {
-        final Missing missing = database.threadAndEmailDao().getMissing(query);
+        final Missing missing = read("getMissing", () -> database.threadAndEmailDao().getMissing(query));
         LOGGER.debug("cache reported {} missing threads", missing.threadIds.size());
         return missing;
     }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+import androidx.annotation.NonNull;
+import androidx.room.InvalidationTracker;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+
+import rs.ltt.android.entity.AccountWithCredentials;
+
+/**
+ * Keeps all accounts and their credentials in memory. The accounts are loaded once, off the main
+ * thread, and reloaded on the next request after Room reports a change to the account or the
+ * credentials table. Room reports changes asynchronously; code that writes accounts and reads
+ * them back right away has to call {@link #invalidate()} itself.
+ */
+public class AccountRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccountRegistry.class);
+
+    private final AppDatabase database;
+
+    private ListenableFuture<Snapshot> snapshot = null;
+
+    AccountRegistry(final AppDatabase database) {
+        this.database = database;
+        database.getInvalidationTracker().addObserver(new InvalidationTracker.Observer("account", "credentials") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidate();
+            }
+        });
+    }
+
+    public ListenableFuture<AccountWithCredentials> getAccount(final long id) {
+        return Futures.transform(
+                getSnapshot(),
+                snapshot -> {
+                    final AccountWithCredentials account = snapshot.accounts.get(id);
+                    if (account == null) {
+                        throw new IllegalStateException(String.format("Account %d does not exist", id));
+                    }
+                    return account;
+                },
+                MoreExecutors.directExecutor()
+        );
+    }
+
+    public ListenableFuture<Long> getMostRecentlySelectedAccountId() {
+        return Futures.transform(
+                getSnapshot(),
+                snapshot -> snapshot.mostRecentlySelectedAccountId,
+                MoreExecutors.directExecutor()
+        );
+    }
+
+    public ListenableFuture<Boolean> hasAccounts() {
+        return Futures.transform(
+                getSnapshot(),
+                snapshot -> !snapshot.accounts.isEmpty(),
+                MoreExecutors.directExecutor()
+        );
+    }
+
+    public synchronized void invalidate() {
+        this.snapshot = null;
+    }
+
+    private synchronized ListenableFuture<Snapshot> getSnapshot() {
+        if (this.snapshot != null) {
+            return this.snapshot;
+        }
+        final long start = System.nanoTime();
+        final ListenableFuture<Snapshot> future = Futures.transform(
+                database.accountDao().getAccountsFuture(),
+                accounts -> {
+                    LOGGER.debug(
+                            "loaded {} accounts in {}ms",
+                            accounts.size(),
+                            (System.nanoTime() - start) / 1_000_000
+                    );
+                    return Snapshot.of(accounts);
+                },
+                MoreExecutors.directExecutor()
+        );
+        //a failed load is not cached; the next request will try again
+        future.addListener(() -> {
+            try {
+                future.get();
+            } catch (final Exception e) {
+                LOGGER.warn("Unable to load accounts", e);
+                synchronized (this) {
+                    if (this.snapshot == future) {
+                        this.snapshot = null;
+                    }
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        this.snapshot = future;
+        return future;
+    }
+
+    private static class Snapshot {
+
+        private final ImmutableMap<Long, AccountWithCredentials> accounts;
+        private final Long mostRecentlySelectedAccountId;
+
+        private Snapshot(final ImmutableMap<Long, AccountWithCredentials> accounts,
+                         final Long mostRecentlySelectedAccountId) {
+            this.accounts = accounts;
+            this.mostRecentlySelectedAccountId = mostRecentlySelectedAccountId;
+        }
+
+        //accounts are expected to be ordered by selection; the first one is the most recently selected
+        private static Snapshot of(final List<AccountWithCredentials> accounts) {
+            final ImmutableMap.Builder<Long, AccountWithCredentials> builder = ImmutableMap.builder();
+            for (final AccountWithCredentials account : accounts) {
+                builder.put(account.id, account);
+            }
+            return new Snapshot(
+                    builder.build(),
+                    accounts.isEmpty() ? null : accounts.get(0).id
+            );
+        }
+    }
+}
@@ -35,7 +35,7 @@ import rs.ltt.android.entity.SearchSuggestionEntity;
                 AccountEntity.class,
                 SearchSuggestionEntity.class
         },
-        version = 1,
+        version = 2,
         exportSchema = false
 )
 @TypeConverters(Converters.class)
@@ -44,10 +44,22 @@ public abstract class AppDatabase extends RoomDatabase {
 
     private static volatile AppDatabase INSTANCE = null;
 
+    private AccountRegistry accountRegistry;
+
+    private SearchSuggestionIndex searchSuggestionIndex;
+
     public abstract SearchSuggestionDao searchSuggestionDao();
 
     public abstract AccountDao accountDao();
 
+    public AccountRegistry getAccountRegistry() {
+        return accountRegistry;
+    }
+
+    public SearchSuggestionIndex getSearchSuggestionIndex() {
+        return searchSuggestionIndex;
+    }
+
     public static AppDatabase getInstance(final Context context) {
         if (INSTANCE != null) {
             return INSTANCE;
@@ -56,7 +68,12 @@ public abstract class AppDatabase extends RoomDatabase {
             if (INSTANCE != null) {
                 return INSTANCE;
             }
-            INSTANCE = Room.databaseBuilder(context, AppDatabase.class, "app").allowMainThreadQueries().build();
+            final AppDatabase instance = Room.databaseBuilder(context, AppDatabase.class, "app")
+                    .addMigrations(Migrations.APP_DATABASE)
+                    .build();
+            instance.accountRegistry = new AccountRegistry(instance);
+            instance.searchSuggestionIndex = new SearchSuggestionIndex(instance);
+            INSTANCE = instance;
             return INSTANCE;
         }
     }
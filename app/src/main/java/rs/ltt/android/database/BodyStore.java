@@ -0,0 +1,173 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+import android.content.Context;
+
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rs.ltt.android.worker.BodyStoreGarbageCollectionWorker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps large body values out of the email_body_value table. Bodies above {@link #THRESHOLD}
+ * characters are written gzip compressed to one file per emailId/partId; the row only holds the
+ * file name as a reference.
+ */
+public class BodyStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BodyStore.class);
+
+    public static final int THRESHOLD = 16 * 1024;
+
+    private static final String SUFFIX = ".gz";
+
+    private static final long GARBAGE_COLLECTION_DELAY_MINUTES = 15;
+
+    private final Context context;
+    private final Long account;
+    private final File directory;
+
+    BodyStore(final Context context, final Long account, final File directory) {
+        this.context = context.getApplicationContext();
+        this.account = account;
+        this.directory = directory;
+    }
+
+    public static boolean shouldStore(final String value) {
+        return value != null && value.length() > THRESHOLD;
+    }
+
+    public static String reference(final String emailId, final String partId) {
+        return Hashing.sha256()
+                .newHasher()
+                .putString(emailId, Charsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(partId, Charsets.UTF_8)
+                .hash()
+                .toString() + SUFFIX;
+    }
+
+    /**
+     * Writes to a temporary file first and renames it afterwards so that readers never see a
+     * partially written body.
+     */
+    public void write(final String reference, final String value) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + directory.getAbsolutePath());
+        }
+        final File file = new File(directory, reference);
+        final File temporary = new File(directory, reference + ".tmp");
+        try (final OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(temporary))) {
+            outputStream.write(value.getBytes(Charsets.UTF_8));
+        } catch (final IOException e) {
+            temporary.delete();
+            throw new IllegalStateException("Unable to write body " + reference, e);
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IllegalStateException("Unable to move body " + reference + " into place");
+        }
+    }
+
+    /**
+     * @return the body or null if the file is missing or can not be read
+     */
+    public String read(final String reference) {
+        final File file = new File(directory, reference);
+        try (final InputStream inputStream = new GZIPInputStream(new FileInputStream(file))) {
+            return new String(ByteStreams.toByteArray(inputStream), Charsets.UTF_8);
+        } catch (final IOException e) {
+            LOGGER.warn("Unable to read body {}", reference, e);
+            return null;
+        }
+    }
+
+    /**
+     * Emails are deleted through SQL (and cascade to their body values) so the files have to be
+     * cleaned up afterwards. Multiple requests within the delay are collapsed into one run.
+     */
+    public void scheduleGarbageCollection() {
+        final OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(BodyStoreGarbageCollectionWorker.class)
+                .setInputData(BodyStoreGarbageCollectionWorker.data(account))
+                .setInitialDelay(GARBAGE_COLLECTION_DELAY_MINUTES, TimeUnit.MINUTES)
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(
+                BodyStoreGarbageCollectionWorker.uniqueWorkName(account),
+                ExistingWorkPolicy.KEEP,
+                workRequest
+        );
+    }
+
+    /**
+     * @return the number of bytes taken up by all bodies
+     */
+    public long size() {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long size = 0;
+        for (final File file : files) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    /**
+     * Deletes every file that is not in the set of references. Files younger than minAge are kept
+     * since they might belong to a write transaction that has not been committed yet.
+     *
+     * @return the number of deleted files
+     */
+    public int collectGarbage(final Set<String> references, final long minAge) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        final long cutOff = System.currentTimeMillis() - minAge;
+        int deleted = 0;
+        for (final File file : files) {
+            final String name = file.getName();
+            if (references.contains(name) || file.lastModified() > cutOff) {
+                continue;
+            }
+            if (file.delete()) {
+                ++deleted;
+            }
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rs.ltt.android.entity.TableStatistics;
+import rs.ltt.android.worker.CacheRetentionWorker;
+
+/**
+ * Keeps the account database within the storage budget of its {@link RetentionPolicy}. Queries
+ * are cut down to their first pages and the least recently opened threads that are no longer
+ * referenced by any query are evicted until the budget is met.
+ */
+public class CacheRetention {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheRetention.class);
+
+    private static final int EVICTION_BATCH_SIZE = 100;
+
+    private static final long DELAY_MINUTES = 60;
+
+    private final Context context;
+    private final Long account;
+    private final LttrsDatabase database;
+    private volatile RetentionPolicy policy = RetentionPolicy.DEFAULT;
+
+    CacheRetention(final Context context, final Long account, final LttrsDatabase database) {
+        this.context = context.getApplicationContext();
+        this.account = account;
+        this.database = database;
+    }
+
+    public RetentionPolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(final RetentionPolicy policy) {
+        this.policy = policy;
+    }
+
+    public void schedule() {
+        final OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(CacheRetentionWorker.class)
+                .setInputData(CacheRetentionWorker.data(account))
+                .setInitialDelay(DELAY_MINUTES, TimeUnit.MINUTES)
+                .setConstraints(new Constraints.Builder().setRequiresBatteryNotLow(true).build())
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(
+                CacheRetentionWorker.uniqueWorkName(account),
+                ExistingWorkPolicy.KEEP,
+                workRequest
+        );
+    }
+
+    /**
+     * @return the number of evicted threads
+     */
+    public int run() {
+        final RetentionPolicy policy = this.policy;
+        final long used = getUsedBytes();
+        if (used <= policy.storageBudget) {
+            LOGGER.debug("{} bytes used. Within budget of {} bytes", used, policy.storageBudget);
+            return 0;
+        }
+        final DatabaseExecutor writer = database.getWriterExecutor();
+        final int truncated = writer.await(() -> {
+            final int removed = database.retentionDao().truncateQueries(policy.getMaxQueryItems());
+            //the last item (upTo) of the truncated queries has changed
+            database.getStateSnapshot().refreshQueries();
+            return removed;
+        });
+        int evicted = 0;
+        while (getUsedBytes() > policy.storageBudget) {
+            final long barrier = database.getOptimisticOverlay().getVersion();
+            final int count = writer.await(() -> {
+                final int batch = database.retentionDao().evict(EVICTION_BATCH_SIZE);
+                //overwrites of evicted threads are deleted by the foreign key cascade
+                database.getOptimisticOverlay().reconcile(barrier);
+                //running on the writer there is no other write transaction that could still be adding bodies
+                database.getBodyStore().collectGarbage(
+                        ImmutableSet.copyOf(database.threadAndEmailDao().getBodyReferences()),
+                        0
+                );
+                return batch;
+            });
+            if (count == 0) {
+                break;
+            }
+            evicted += count;
+        }
+        LOGGER.info(
+                "Truncated {} query items and evicted {} threads. {} bytes used",
+                truncated,
+                evicted,
+                getUsedBytes()
+        );
+        return evicted;
+    }
+
+    /**
+     * Pages on the free list are reused by SQLite and are therefore not counted as used.
+     */
+    private long getUsedBytes() {
+        final Statistics statistics = getStatistics(false);
+        return statistics.databaseBytes - statistics.freeBytes + statistics.bodyStoreBytes;
+    }
+
+    public Statistics getStatistics() {
+        return getStatistics(true);
+    }
+
+    private Statistics getStatistics(final boolean includeTables) {
+        final SupportSQLiteDatabase db = database.getOpenHelper().getReadableDatabase();
+        final long pageSize = pragma(db, "page_size");
+        return new Statistics(
+                pragma(db, "page_count") * pageSize,
+                pragma(db, "freelist_count") * pageSize,
+                database.getBodyStore().size(),
+                includeTables ? database.retentionDao().getTableStatistics() : null
+        );
+    }
+
+    private static long pragma(final SupportSQLiteDatabase db, final String name) {
+        try (final Cursor cursor = db.query("PRAGMA " + name)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    public static class Statistics {
+        public final long databaseBytes;
+        public final long freeBytes;
+        public final long bodyStoreBytes;
+        public final List<TableStatistics> tables;
+
+        private Statistics(long databaseBytes, long freeBytes, long bodyStoreBytes, List<TableStatistics> tables) {
+            this.databaseBytes = databaseBytes;
+            this.freeBytes = freeBytes;
+            this.bodyStoreBytes = bodyStoreBytes;
+            this.tables = tables;
+        }
+
+        @Override
+        public String toString() {
+            return "database=" + databaseBytes
+                    + " free=" + freeBytes
+                    + " bodies=" + bodyStoreBytes
+                    + " tables=" + tables;
+        }
+    }
+}
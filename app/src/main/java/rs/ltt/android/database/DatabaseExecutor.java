@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size executor for database work that keeps track of how often and for how long tasks
+ * had to wait for a free thread. With one thread it acts as the single writer of a database; with
+ * multiple threads as a bounded pool of readers.
+ */
+public class DatabaseExecutor implements Executor {
+
+    private final String name;
+    private final int threads;
+    private final ThreadPoolExecutor executor;
+    private final ThreadLocal<Boolean> onExecutorThread = new ThreadLocal<>();
+
+    private final AtomicInteger busy = new AtomicInteger(0);
+    private final AtomicLong executed = new AtomicLong(0);
+    private final AtomicLong contended = new AtomicLong(0);
+    private final AtomicLong totalWaitMillis = new AtomicLong(0);
+    private final AtomicLong maxWaitMillis = new AtomicLong(0);
+
+    private DatabaseExecutor(final String name, final int threads) {
+        this.name = name;
+        this.threads = threads;
+        this.executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                30,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").build()
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    static DatabaseExecutor readers(final String name, final int threads) {
+        return new DatabaseExecutor(name + "-reader", threads);
+    }
+
+    static DatabaseExecutor writer(final String name) {
+        return new DatabaseExecutor(name + "-writer", 1);
+    }
+
+    @Override
+    public void execute(@NonNull final Runnable command) {
+        final long submitted = System.nanoTime();
+        if (busy.get() >= threads) {
+            contended.incrementAndGet();
+        }
+        executor.execute(() -> {
+            final long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted);
+            totalWaitMillis.addAndGet(waited);
+            updateMax(waited);
+            busy.incrementAndGet();
+            onExecutorThread.set(Boolean.TRUE);
+            try {
+                command.run();
+            } finally {
+                onExecutorThread.remove();
+                busy.decrementAndGet();
+                executed.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Runs the callable on this executor and blocks until it has completed. Runtime exceptions
+     * thrown by the callable are rethrown unchanged. Calls made from one of this executor’s own
+     * threads run inline to avoid dead locking a single writer.
+     */
+    public <T> T await(final Callable<T> callable) {
+        if (onExecutorThread.get() == Boolean.TRUE) {
+            try {
+                return callable.call();
+            } catch (final RuntimeException e) {
+                throw e;
+            } catch (final Exception e) {
+                throw new UncheckedExecutionException(e);
+            }
+        }
+        final ListenableFutureTask<T> task = ListenableFutureTask.create(callable);
+        execute(task);
+        try {
+            return task.get();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new UncheckedExecutionException(cause);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + name, e);
+        }
+    }
+
+    public void await(final Runnable runnable) {
+        await(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(
+                name,
+                threads,
+                busy.get(),
+                executor.getQueue().size(),
+                executed.get(),
+                contended.get(),
+                totalWaitMillis.get(),
+                maxWaitMillis.get()
+        );
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private void updateMax(final long waited) {
+        long current;
+        do {
+            current = maxWaitMillis.get();
+            if (waited <= current) {
+                return;
+            }
+        } while (!maxWaitMillis.compareAndSet(current, waited));
+    }
+
+    public static class Statistics {
+        public final String name;
+        public final int threads;
+        public final int busy;
+        public final int queued;
+        public final long executed;
+        public final long contended;
+        public final long totalWaitMillis;
+        public final long maxWaitMillis;
+
+        private Statistics(String name, int threads, int busy, int queued, long executed, long contended, long totalWaitMillis, long maxWaitMillis) {
+            this.name = name;
+            this.threads = threads;
+            this.busy = busy;
+            this.queued = queued;
+            this.executed = executed;
+            this.contended = contended;
+            this.totalWaitMillis = totalWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("name", name)
+                    .add("threads", threads)
+                    .add("busy", busy)
+                    .add("queued", queued)
+                    .add("executed", executed)
+                    .add("contended", contended)
+                    .add("totalWaitMillis", totalWaitMillis)
+                    .add("maxWaitMillis", maxWaitMillis)
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.room.InvalidationTracker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Defers the refresh of Room's {@link InvalidationTracker} while a sync session is open. Tables
+ * modified by several back to back transactions stay marked in Room's modification log, so a
+ * single refresh at the end notifies every observer once. To keep the UI responsive a deferred
+ * refresh is never held back longer than the max latency.
+ * <p>
+ * Only transactions that run through {@link #deferrable(Callable)} (the writes of
+ * {@link rs.ltt.android.cache.DatabaseCache}) are deferred. Any other write, for example a draft
+ * or a local mailbox change, refreshes right away and takes the deferred tables along.
+ */
+public class InvalidationCoalescer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InvalidationCoalescer.class);
+
+    private static final long MAX_LATENCY_MILLIS = 750;
+
+    private final LttrsDatabase database;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flush = this::flush;
+
+    private final ThreadLocal<Boolean> deferrable = new ThreadLocal<>();
+
+    private int sessions = 0;
+    private boolean pending = false;
+    private int deferred = 0;
+
+    InvalidationCoalescer(final LttrsDatabase database) {
+        this.database = database;
+    }
+
+    public synchronized Session begin() {
+        ++sessions;
+        return new Session();
+    }
+
+    public <T> T deferrable(final Callable<T> callable) throws Exception {
+        final Boolean previous = deferrable.get();
+        deferrable.set(Boolean.TRUE);
+        try {
+            return callable.call();
+        } finally {
+            deferrable.set(previous);
+        }
+    }
+
+    /**
+     * Called whenever the outermost transaction of the database has ended.
+     */
+    void onTransactionEnded() {
+        synchronized (this) {
+            if (sessions > 0 && deferrable.get() != null) {
+                ++deferred;
+                if (!pending) {
+                    pending = true;
+                    handler.postDelayed(flush, MAX_LATENCY_MILLIS);
+                }
+                return;
+            }
+            //the refresh below covers the tables of the deferred transactions as well
+            if (pending) {
+                pending = false;
+                handler.removeCallbacks(flush);
+                deferred = 0;
+            }
+        }
+        refresh();
+    }
+
+    private synchronized void end() {
+        --sessions;
+        if (sessions == 0) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        synchronized (this) {
+            if (!pending) {
+                return;
+            }
+            pending = false;
+            handler.removeCallbacks(flush);
+            LOGGER.debug("Coalesced {} transactions into one invalidation", deferred);
+            deferred = 0;
+        }
+        refresh();
+    }
+
+    @SuppressWarnings("RestrictedApi")
+    private void refresh() {
+        database.getInvalidationTracker().refreshVersionsAsync();
+    }
+
+    public class Session implements AutoCloseable {
+
+        private boolean closed = false;
+
+        private Session() {
+
+        }
+
+        @Override
+        public void close() {
+            synchronized (InvalidationCoalescer.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            end();
+        }
+    }
+}
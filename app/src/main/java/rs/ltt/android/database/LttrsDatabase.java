@@ -15,27 +15,30 @@
 
 package rs.ltt.android.database;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
 
+import rs.ltt.android.cache.CacheMetrics;
 import rs.ltt.android.database.dao.IdentityDao;
 import rs.ltt.android.database.dao.MailboxDao;
 import rs.ltt.android.database.dao.OverwriteDao;
 import rs.ltt.android.database.dao.QueryDao;
+import rs.ltt.android.database.dao.RetentionDao;
 import rs.ltt.android.database.dao.StateDao;
 import rs.ltt.android.database.dao.ThreadAndEmailDao;
 import rs.ltt.android.entity.EmailBodyPartEntity;
 import rs.ltt.android.entity.EmailBodyValueEntity;
 import rs.ltt.android.entity.EmailEmailAddressEntity;
 import rs.ltt.android.entity.EmailEntity;
+import rs.ltt.android.entity.EmailFtsEntity;
 import rs.ltt.android.entity.EmailInReplyToEntity;
 import rs.ltt.android.entity.EmailKeywordEntity;
 import rs.ltt.android.entity.EmailMailboxEntity;
@@ -49,8 +52,10 @@ import rs.ltt.android.entity.MailboxOverwriteEntity;
 import rs.ltt.android.entity.QueryEntity;
 import rs.ltt.android.entity.QueryItemEntity;
 import rs.ltt.android.entity.QueryItemOverwriteEntity;
+import rs.ltt.android.entity.ThreadAccessEntity;
 import rs.ltt.android.entity.ThreadEntity;
 import rs.ltt.android.entity.ThreadItemEntity;
+import rs.ltt.android.entity.ThreadOverviewEntity;
 
 @Database(
         entities = {
@@ -58,7 +63,10 @@ import rs.ltt.android.entity.ThreadItemEntity;
                 EntityStateEntity.class,
                 ThreadEntity.class,
                 ThreadItemEntity.class,
+                ThreadAccessEntity.class,
+                ThreadOverviewEntity.class,
                 EmailEntity.class,
+                EmailFtsEntity.class,
                 EmailInReplyToEntity.class,
                 EmailMessageIdEntity.class,
                 EmailEmailAddressEntity.class,
@@ -74,15 +82,30 @@ import rs.ltt.android.entity.ThreadItemEntity;
                 MailboxOverwriteEntity.class,
                 QueryItemOverwriteEntity.class
         },
-        version = 1,
-        exportSchema = false
+        version = 9
 )
 @TypeConverters(Converters.class)
 public abstract class LttrsDatabase extends RoomDatabase {
 
-    @SuppressLint("UseSparseArrays")
-    //TODO use Guava cache - for multi account environments we don’t need to keep old ones around for ever
-    private static final Map<Long, LttrsDatabase> INSTANCES = new HashMap<>();
+    private static final LttrsDatabaseRegistry INSTANCES = new LttrsDatabaseRegistry(3);
+
+    private static final int READER_THREADS = 4;
+
+    private DatabaseExecutor readerExecutor;
+
+    private DatabaseExecutor writerExecutor;
+
+    private BodyStore bodyStore;
+
+    private CacheRetention cacheRetention;
+
+    private StateSnapshot stateSnapshot;
+
+    private OptimisticOverlay optimisticOverlay;
+
+    private final CacheMetrics cacheMetrics = new CacheMetrics();
+
+    private final InvalidationCoalescer invalidationCoalescer = new InvalidationCoalescer(this);
 
     public abstract ThreadAndEmailDao threadAndEmailDao();
 
@@ -96,19 +119,106 @@ public abstract class LttrsDatabase extends RoomDatabase {
 
     public abstract OverwriteDao overwriteDao();
 
-    public static LttrsDatabase getInstance(final Context context, final Long account) {
-        final LttrsDatabase instance = INSTANCES.get(account);
-        if (instance != null) {
-            return instance;
+    public abstract RetentionDao retentionDao();
+
+    /**
+     * Bounded pool of readers. Room runs LiveData and ListenableFuture queries on it and the
+     * thread lists of this account fetch their pages here.
+     */
+    public DatabaseExecutor getReaderExecutor() {
+        return readerExecutor;
+    }
+
+    /**
+     * The single thread that performs write transactions issued by {@link rs.ltt.android.cache.DatabaseCache}.
+     * With write-ahead logging readers can proceed while a long running sync transaction is active.
+     */
+    public DatabaseExecutor getWriterExecutor() {
+        return writerExecutor;
+    }
+
+    public BodyStore getBodyStore() {
+        return bodyStore;
+    }
+
+    public CacheRetention getCacheRetention() {
+        return cacheRetention;
+    }
+
+    public StateSnapshot getStateSnapshot() {
+        return stateSnapshot;
+    }
+
+    public OptimisticOverlay getOptimisticOverlay() {
+        return optimisticOverlay;
+    }
+
+    public CacheMetrics getCacheMetrics() {
+        return cacheMetrics;
+    }
+
+    public InvalidationCoalescer getInvalidationCoalescer() {
+        return invalidationCoalescer;
+    }
+
+    /**
+     * Same as {@link RoomDatabase#endTransaction()} except that the refresh of the invalidation
+     * tracker goes through the {@link InvalidationCoalescer}.
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    public void endTransaction() {
+        getOpenHelper().getWritableDatabase().endTransaction();
+        if (!inTransaction()) {
+            invalidationCoalescer.onTransactionEnded();
+        }
+    }
+
+    /**
+     * @param holder the object (repository or worker) that keeps the database in use. An evicted
+     *               database will not be closed before all of its holders have been garbage
+     *               collected.
+     */
+    public static LttrsDatabase getInstance(final Context context, final Long account, final Object holder) {
+        return INSTANCES.get(account, holder, () -> {
+            final String filename = String.format("lttrs-%x", account);
+            final DatabaseExecutor readerExecutor = DatabaseExecutor.readers(filename, READER_THREADS);
+            final DatabaseExecutor writerExecutor = DatabaseExecutor.writer(filename);
+            final LttrsDatabase database = Room.databaseBuilder(context.getApplicationContext(), LttrsDatabase.class, filename)
+                    .setJournalMode(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING)
+                    .setQueryExecutor(readerExecutor)
+                    .setTransactionExecutor(writerExecutor)
+                    .addMigrations(Migrations.LTTRS_DATABASE)
+                    .addCallback(new Callback() {
+                        @Override
+                        public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                            ThreadOverviewTriggers.create(db);
+                        }
+                    })
+                    .build();
+            database.readerExecutor = readerExecutor;
+            database.writerExecutor = writerExecutor;
+            database.bodyStore = new BodyStore(context, account, new File(new File(context.getFilesDir(), "bodies"), filename));
+            database.cacheRetention = new CacheRetention(context, account, database);
+            database.stateSnapshot = new StateSnapshot(database);
+            database.optimisticOverlay = new OptimisticOverlay(database);
+            database.optimisticOverlay.load();
+            return database;
+        });
+    }
+
+    public static void onTrimMemory(final int level) {
+        INSTANCES.onTrimMemory(level);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (readerExecutor != null) {
+            readerExecutor.shutdown();
         }
-        synchronized (LttrsDatabase.class) {
-            LttrsDatabase inner = INSTANCES.get(account);
-            if (inner == null) {
-                final String filename = String.format("lttrs-%x", account);
-                inner = Room.databaseBuilder(context.getApplicationContext(), LttrsDatabase.class, filename).build();
-                INSTANCES.put(account, inner);
-            }
-            return inner;
+        if (writerExecutor != null) {
+            writerExecutor.shutdown();
         }
     }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+import android.content.ComponentCallbacks2;
+
+import com.google.common.base.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size bounded, access ordered registry of per account databases. Databases that fall out of the
+ * registry are retired and only closed once every holder (repositories backing view models and
+ * their LiveData, running workers) has been garbage collected. Asking for a retired database
+ * revives it instead of opening a second instance on the same file.
+ */
+final class LttrsDatabaseRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LttrsDatabaseRegistry.class);
+
+    private final int maxSize;
+
+    private final LinkedHashMap<Long, Entry> active = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, Entry> retired = new HashMap<>();
+
+    LttrsDatabaseRegistry(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    synchronized LttrsDatabase get(final Long account, final Object holder, final Supplier<LttrsDatabase> supplier) {
+        Entry entry = active.get(account);
+        if (entry == null) {
+            entry = retired.remove(account);
+            if (entry == null) {
+                entry = new Entry(supplier.get());
+            } else {
+                LOGGER.debug("reviving retired database for account {}", account);
+            }
+            active.put(account, entry);
+        }
+        entry.hold(holder);
+        shrink(maxSize);
+        return entry.database;
+    }
+
+    synchronized void onTrimMemory(final int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            shrink(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            shrink(1);
+        } else {
+            shrink(maxSize);
+        }
+    }
+
+    private void shrink(final int size) {
+        final Iterator<Map.Entry<Long, Entry>> iterator = active.entrySet().iterator();
+        while (active.size() > size && iterator.hasNext()) {
+            final Map.Entry<Long, Entry> eldest = iterator.next();
+            iterator.remove();
+            retired.put(eldest.getKey(), eldest.getValue());
+        }
+        closeUnheld();
+    }
+
+    private void closeUnheld() {
+        final Iterator<Map.Entry<Long, Entry>> iterator = retired.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Long, Entry> entry = iterator.next();
+            if (entry.getValue().isHeld()) {
+                continue;
+            }
+            LOGGER.info("closing database for account {}", entry.getKey());
+            iterator.remove();
+            entry.getValue().database.close();
+        }
+    }
+
+    private static class Entry {
+
+        private final LttrsDatabase database;
+        private final List<WeakReference<Object>> holders = new ArrayList<>();
+
+        private Entry(final LttrsDatabase database) {
+            this.database = database;
+        }
+
+        private void hold(final Object holder) {
+            purge();
+            for (final WeakReference<Object> reference : holders) {
+                if (reference.get() == holder) {
+                    return;
+                }
+            }
+            holders.add(new WeakReference<>(holder));
+        }
+
+        private boolean isHeld() {
+            purge();
+            return !holders.isEmpty();
+        }
+
+        private void purge() {
+            final Iterator<WeakReference<Object>> iterator = holders.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().get() == null) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rs.ltt.android.entity.EmailFtsEntity;
+
+public final class Migrations {
+
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_email_threadId` ON `email` (`threadId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_email_mailbox_mailboxId` ON `email_mailbox` (`mailboxId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_email_keyword_keyword` ON `email_keyword` (`keyword`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_thread_item_threadId_position` ON `thread_item` (`threadId`, `position`)");
+            database.execSQL("DROP INDEX IF EXISTS `index_query_item_queryId`");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_query_item_queryId_position` ON `query_item` (`queryId`, `position`)");
+        }
+    };
+
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `thread_overview` (`threadId` TEXT NOT NULL, `subject` TEXT, `preview` TEXT, `receivedAt` INTEGER, `emailCount` INTEGER NOT NULL, `seen` INTEGER NOT NULL, `flagged` INTEGER NOT NULL, `mailboxIds` TEXT, `senders` TEXT, PRIMARY KEY(`threadId`))");
+            ThreadOverviewTriggers.create(database);
+            ThreadOverviewTriggers.rebuild(database);
+        }
+    };
+
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase database) {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `email_fts` USING FTS4(`emailId` TEXT, `subject` TEXT, `preview` TEXT, `addresses` TEXT, `body` TEXT, tokenize=unicode61, notindexed=`emailId`)");
+            database.execSQL("INSERT INTO `email_fts` (`rowid`, `emailId`, `subject`, `preview`, `addresses`, `body`) SELECT email.rowid, email.id, email.subject, email.preview, " +
+                    "(SELECT group_concat(ifnull(name, '') || ' ' || ifnull(email_email_address.email, ''), ' ') FROM email_email_address WHERE email_email_address.emailId=email.id), " +
+                    "(SELECT group_concat(value, char(10)) FROM email_body_value WHERE email_body_value.emailId=email.id) " +
+                    "FROM email");
+        }
+    };
+
+    //existing bodies stay inline; only bodies written from now on are moved into the BodyStore
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `email_body_value` ADD COLUMN `reference` TEXT");
+        }
+    };
+
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `thread_access` (`threadId` TEXT NOT NULL, `lastAccessedAt` INTEGER, PRIMARY KEY(`threadId`))");
+        }
+    };
+
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `email_body_value` ADD COLUMN `structure` BLOB");
+        }
+    };
+
+    //full text entries of bodies that have been moved into the BodyStore only keep their words
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase database) {
+            final List<Long> rowIds = new ArrayList<>();
+            try (final Cursor cursor = database.query("SELECT `rowid` FROM `email_fts` WHERE length(`body`) > " + BodyStore.THRESHOLD)) {
+                while (cursor.moveToNext()) {
+                    rowIds.add(cursor.getLong(0));
+                }
+            }
+            //one body at a time; they are large by definition
+            for (final Long rowId : rowIds) {
+                final String body;
+                try (final Cursor cursor = database.query("SELECT `body` FROM `email_fts` WHERE `rowid`=?", new Object[]{rowId})) {
+                    body = cursor.moveToFirst() ? cursor.getString(0) : null;
+                }
+                if (body != null) {
+                    database.execSQL("UPDATE `email_fts` SET `body`=? WHERE `rowid`=?", new Object[]{EmailFtsEntity.toWords(body), rowId});
+                }
+            }
+        }
+    };
+
+    //thread overview triggers that can be deferred during bulk inserts
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase database) {
+            ThreadOverviewTriggers.drop(database);
+            ThreadOverviewTriggers.create(database);
+        }
+    };
+
+    static final Migration APP_MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull final SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `search_suggestion` ADD COLUMN `useCount` INTEGER NOT NULL DEFAULT 1");
+            database.execSQL("ALTER TABLE `search_suggestion` ADD COLUMN `lastUsedAt` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration[] LTTRS_DATABASE = new Migration[]{
+            MIGRATION_1_2,
+            MIGRATION_2_3,
+            MIGRATION_3_4,
+            MIGRATION_4_5,
+            MIGRATION_5_6,
+            MIGRATION_6_7,
+            MIGRATION_7_8,
+            MIGRATION_8_9
+    };
+
+    static final Migration[] APP_DATABASE = new Migration[]{
+            APP_MIGRATION_1_2
+    };
+
+    private Migrations() {
+
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+import android.os.Looper;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import rs.ltt.android.entity.KeywordOverwriteEntity;
+import rs.ltt.android.entity.MailboxOverwriteEntity;
+import rs.ltt.jmap.common.entity.Role;
+
+/**
+ * In-memory copy of the optimistic keyword and mailbox changes (flagging, archiving, …) that have
+ * not been confirmed by the server yet. The thread list applies the overlay when it renders a row,
+ * so a change is visible in the next frame; the list observes {@link #getVersionLiveData()}
+ * instead of waiting for Room to invalidate and re-run its query.
+ *
+ * <p>Every change is persisted to the keyword_overwrite and mailbox_overwrite tables on the writer
+ * executor, so the overlay survives a crash and is reloaded on start. After the cache has
+ * processed changes from the server (which drops confirmed overwrites) the overlay is reconciled
+ * with those tables. Threads that were modified after the server changes had been queued keep
+ * their in-memory state; their own writes have not reached the tables yet.
+ */
+public class OptimisticOverlay {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OptimisticOverlay.class);
+
+    private final LttrsDatabase database;
+
+    private final MutableLiveData<Long> versionLiveData = new MutableLiveData<>();
+
+    private volatile ImmutableMap<String, ThreadOverlay> threads = ImmutableMap.of();
+
+    //version of the last in-memory change of each thread that has not been reconciled yet
+    private final Map<String, Long> threadVersions = new HashMap<>();
+
+    private long version = 0;
+
+    OptimisticOverlay(final LttrsDatabase database) {
+        this.database = database;
+    }
+
+    void load() {
+        final long barrier = getVersion();
+        database.getWriterExecutor().execute(() -> reconcile(barrier));
+    }
+
+    public Boolean getKeyword(final String threadId, final String keyword) {
+        final ThreadOverlay overlay = threads.get(threadId);
+        return overlay == null ? null : overlay.keywords.get(keyword);
+    }
+
+    public Boolean getMailbox(final String threadId, final Role role) {
+        final ThreadOverlay overlay = threads.get(threadId);
+        if (overlay == null) {
+            return null;
+        }
+        final MailboxOverwriteEntity entity = MailboxOverwriteEntity.find(overlay.mailboxes, role);
+        return entity == null ? null : entity.value;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Emits a new version after every change of the overlay.
+     */
+    public LiveData<Long> getVersionLiveData() {
+        return versionLiveData;
+    }
+
+    public void setKeyword(final Collection<String> threadIds, final String keyword, final boolean value) {
+        final Collection<KeywordOverwriteEntity> entities = new ArrayList<>();
+        synchronized (this) {
+            final Map<String, ThreadOverlay> modified = new HashMap<>(threads);
+            for (final String threadId : threadIds) {
+                modified.put(threadId, get(modified, threadId).withKeyword(keyword, value));
+                entities.add(new KeywordOverwriteEntity(threadId, keyword, value));
+            }
+            publish(modified, threadIds);
+            database.getWriterExecutor().execute(() -> database.overwriteDao().insertKeywordOverwrites(entities));
+        }
+    }
+
+    public void setMailboxes(final Collection<MailboxOverwriteEntity> entities) {
+        final ImmutableSet<MailboxOverwriteEntity> copy = ImmutableSet.copyOf(entities);
+        final ImmutableSet.Builder<String> threadIds = ImmutableSet.builder();
+        synchronized (this) {
+            final Map<String, ThreadOverlay> modified = new HashMap<>(threads);
+            for (final MailboxOverwriteEntity entity : copy) {
+                modified.put(entity.threadId, get(modified, entity.threadId).withMailbox(entity));
+                threadIds.add(entity.threadId);
+            }
+            publish(modified, threadIds.build());
+            database.getWriterExecutor().execute(() -> database.overwriteDao().insertMailboxOverwrites(copy));
+        }
+    }
+
+    /**
+     * Also drops the query item overwrites of type KEYWORD of that thread.
+     */
+    public void revertKeywords(final String threadId) {
+        synchronized (this) {
+            final Map<String, ThreadOverlay> modified = new HashMap<>(threads);
+            modified.put(threadId, get(modified, threadId).withoutKeywords());
+            publish(modified, ImmutableSet.of(threadId));
+            database.getWriterExecutor().execute(() -> database.overwriteDao().revertKeywordOverwrites(threadId));
+        }
+    }
+
+    /**
+     * Also drops the query item overwrites of type MAILBOX of that thread.
+     */
+    public void revertMailboxes(final String threadId) {
+        synchronized (this) {
+            final Map<String, ThreadOverlay> modified = new HashMap<>(threads);
+            modified.put(threadId, get(modified, threadId).withoutMailboxes());
+            publish(modified, ImmutableSet.of(threadId));
+            database.getWriterExecutor().execute(() -> database.overwriteDao().revertMailboxOverwrites(threadId));
+        }
+    }
+
+    /**
+     * Drops the mailbox overwrites and all query item overwrites of those threads.
+     */
+    public void revertMoveToTrash(final Collection<String> threadIds) {
+        final ImmutableSet<String> copy = ImmutableSet.copyOf(threadIds);
+        synchronized (this) {
+            final Map<String, ThreadOverlay> modified = new HashMap<>(threads);
+            for (final String threadId : copy) {
+                modified.put(threadId, get(modified, threadId).withoutMailboxes());
+            }
+            publish(modified, copy);
+            database.getWriterExecutor().execute(() -> database.overwriteDao().revertMoveToTrashOverwrites(copy));
+        }
+    }
+
+    /**
+     * Replaces the in-memory state with the persisted overwrites; except for threads that have
+     * been modified after the barrier. Must be called on the writer executor after the transaction
+     * that dropped overwrites has ended. The barrier has to be read with {@link #getVersion()}
+     * before that transaction was queued.
+     *
+     * <p>Overwrites that were only dropped (because the server confirmed them) don't emit a new
+     * version. The rows still hold the state from before the sync until Paging reloads them;
+     * rebinding them without the overlay would briefly show the old value.
+     */
+    public void reconcile(final long barrier) {
+        final List<KeywordOverwriteEntity> keywords = database.overwriteDao().getAllKeywordOverwrites();
+        final List<MailboxOverwriteEntity> mailboxes = database.overwriteDao().getAllMailboxOverwrites();
+        final Map<String, ThreadOverlay> persisted = new HashMap<>();
+        for (final KeywordOverwriteEntity entity : keywords) {
+            persisted.put(entity.threadId, get(persisted, entity.threadId).withKeyword(entity.keyword, entity.value));
+        }
+        for (final MailboxOverwriteEntity entity : mailboxes) {
+            persisted.put(entity.threadId, get(persisted, entity.threadId).withMailbox(entity));
+        }
+        synchronized (this) {
+            final Iterator<Map.Entry<String, Long>> iterator = threadVersions.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getValue() > barrier) {
+                    final String threadId = entry.getKey();
+                    final ThreadOverlay current = threads.get(threadId);
+                    if (current == null) {
+                        persisted.remove(threadId);
+                    } else {
+                        persisted.put(threadId, current);
+                    }
+                } else {
+                    iterator.remove();
+                }
+            }
+            if (persisted.equals(threads)) {
+                return;
+            }
+            LOGGER.debug("reconciled overlay. {} threads have overwrites", persisted.size());
+            if (isRemovalOnly(persisted)) {
+                this.threads = withoutEmpty(persisted);
+            } else {
+                publish(persisted, ImmutableSet.of());
+            }
+        }
+    }
+
+    private static ThreadOverlay get(final Map<String, ThreadOverlay> threads, final String threadId) {
+        final ThreadOverlay overlay = threads.get(threadId);
+        return overlay == null ? ThreadOverlay.EMPTY : overlay;
+    }
+
+    private boolean isRemovalOnly(final Map<String, ThreadOverlay> persisted) {
+        for (final Map.Entry<String, ThreadOverlay> entry : persisted.entrySet()) {
+            if (!entry.getValue().isContainedIn(get(threads, entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ImmutableMap<String, ThreadOverlay> withoutEmpty(final Map<String, ThreadOverlay> modified) {
+        final ImmutableMap.Builder<String, ThreadOverlay> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, ThreadOverlay> entry : modified.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                builder.put(entry);
+            }
+        }
+        return builder.build();
+    }
+
+    private void publish(final Map<String, ThreadOverlay> modified, final Collection<String> threadIds) {
+        this.threads = withoutEmpty(modified);
+        final long version = ++this.version;
+        for (final String threadId : threadIds) {
+            threadVersions.put(threadId, version);
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            versionLiveData.setValue(version);
+        } else {
+            versionLiveData.postValue(version);
+        }
+    }
+
+    private static class ThreadOverlay {
+
+        private static final ThreadOverlay EMPTY = new ThreadOverlay(ImmutableMap.of(), ImmutableSet.of());
+
+        private final ImmutableMap<String, Boolean> keywords;
+        private final ImmutableSet<MailboxOverwriteEntity> mailboxes;
+
+        private ThreadOverlay(final ImmutableMap<String, Boolean> keywords,
+                              final ImmutableSet<MailboxOverwriteEntity> mailboxes) {
+            this.keywords = keywords;
+            this.mailboxes = mailboxes;
+        }
+
+        private ThreadOverlay withKeyword(final String keyword, final boolean value) {
+            final Map<String, Boolean> keywords = new HashMap<>(this.keywords);
+            keywords.put(keyword, value);
+            return new ThreadOverlay(ImmutableMap.copyOf(keywords), mailboxes);
+        }
+
+        //same primary key as mailbox_overwrite: (threadId, name, role)
+        private ThreadOverlay withMailbox(final MailboxOverwriteEntity entity) {
+            final ImmutableSet.Builder<MailboxOverwriteEntity> builder = ImmutableSet.builder();
+            for (final MailboxOverwriteEntity existing : mailboxes) {
+                if (!existing.name.equals(entity.name) || !existing.role.equals(entity.role)) {
+                    builder.add(existing);
+                }
+            }
+            builder.add(entity);
+            return new ThreadOverlay(keywords, builder.build());
+        }
+
+        private ThreadOverlay withoutKeywords() {
+            return new ThreadOverlay(ImmutableMap.of(), mailboxes);
+        }
+
+        private ThreadOverlay withoutMailboxes() {
+            return new ThreadOverlay(keywords, ImmutableSet.of());
+        }
+
+        private boolean isEmpty() {
+            return keywords.isEmpty() && mailboxes.isEmpty();
+        }
+
+        private boolean isContainedIn(final ThreadOverlay other) {
+            return other.keywords.entrySet().containsAll(keywords.entrySet()) && other.mailboxes.containsAll(mailboxes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ThreadOverlay that = (ThreadOverlay) o;
+            return Objects.equal(keywords, that.keywords) &&
+                    Objects.equal(mailboxes, that.mailboxes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(keywords, mailboxes);
+        }
+    }
+}
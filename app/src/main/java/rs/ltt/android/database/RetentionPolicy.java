@@ -0,0 +1,41 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+public class RetentionPolicy {
+
+    public static final RetentionPolicy DEFAULT = new RetentionPolicy(64L * 1024 * 1024, 5, 20);
+
+    public final long storageBudget;
+    public final int pagesPerQuery;
+    public final int pageSize;
+
+    /**
+     * @param storageBudget bytes the database and the body store may take up before threads are
+     *                      evicted
+     * @param pagesPerQuery number of pages of every cached query that are protected from eviction
+     * @param pageSize      number of items in a page as requested by the mua
+     */
+    public RetentionPolicy(final long storageBudget, final int pagesPerQuery, final int pageSize) {
+        this.storageBudget = storageBudget;
+        this.pagesPerQuery = pagesPerQuery;
+        this.pageSize = pageSize;
+    }
+
+    int getMaxQueryItems() {
+        return pagesPerQuery * pageSize;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+import com.google.common.collect.ImmutableList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import rs.ltt.android.entity.SearchSuggestionEntity;
+
+/**
+ * In-memory n-gram index over all search suggestions. Every suggestion is indexed with all its
+ * substrings of up to {@link #GRAM_LENGTH} characters; a needle is looked up through the posting
+ * list of its rarest gram and only those candidates are checked for the full substring.
+ * Posting lists are ordered by rank (frequency, decaying with the time since last use) so the
+ * first matches found are the best ones.
+ * <p>
+ * The index is loaded on first use. New searches are applied to the index and persisted on a
+ * background executor. Recording a search only touches the posting lists of that suggestion.
+ */
+public class SearchSuggestionIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchSuggestionIndex.class);
+
+    private static final int GRAM_LENGTH = 3;
+
+    //the weight of a past use halves every 30 days
+    private static final double HALF_LIFE_SECONDS = TimeUnit.DAYS.toSeconds(30);
+
+    private static final Executor WRITE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final AppDatabase database;
+
+    private volatile Index index = null;
+
+    SearchSuggestionIndex(final AppDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Must not be called from the main thread; the first call loads the suggestions from the
+     * database.
+     */
+    public List<SearchSuggestionEntity> search(final String needle, final int limit) {
+        return getIndex().search(needle, limit);
+    }
+
+    public void record(final String query) {
+        WRITE_EXECUTOR.execute(() -> {
+            final Instant now = Instant.now();
+            //hold the lock while writing so a concurrent load can not read the new row and then
+            //have the same use applied a second time
+            synchronized (this) {
+                database.searchSuggestionDao().record(query, now);
+                if (this.index != null) {
+                    this.index.record(query, now);
+                }
+            }
+        });
+    }
+
+    private Index getIndex() {
+        final Index current = this.index;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (this.index == null) {
+                final long start = System.nanoTime();
+                this.index = Index.of(database.searchSuggestionDao().getSearchSuggestions());
+                LOGGER.debug(
+                        "indexed {} search suggestions in {}ms",
+                        this.index.size(),
+                        (System.nanoTime() - start) / 1_000_000
+                );
+            }
+            return this.index;
+        }
+    }
+
+    private static String normalize(final String query) {
+        return query.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The score of a suggestion is useCount * 0.5^(age / half life), so log2(score) is
+     * log2(useCount) + lastUsedAt / half life - now / half life. The last term is the same for
+     * every suggestion; ranking by the others gives the order of the scores at any point in time
+     * and a rank only changes when the suggestion is used again.
+     */
+    private static double rank(final SearchSuggestionEntity entity) {
+        return Math.log(entity.useCount) / Math.log(2) + entity.lastUsedAt.getEpochSecond() / HALF_LIFE_SECONDS;
+    }
+
+    static class Index {
+
+        private static final Comparator<Entry> ORDER = (a, b) -> {
+            final int byRank = Double.compare(b.rank, a.rank);
+            return byRank != 0 ? byRank : a.entity.query.compareTo(b.entity.query);
+        };
+
+        private final Map<String, Entry> entries = new HashMap<>();
+        private final NavigableSet<Entry> ranked = new TreeSet<>(ORDER);
+        private final Map<String, NavigableSet<Entry>> postings = new HashMap<>();
+
+        static Index of(final List<SearchSuggestionEntity> entities) {
+            final Index index = new Index();
+            for (final SearchSuggestionEntity entity : entities) {
+                index.add(new Entry(entity));
+            }
+            return index;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void record(final String query, final Instant now) {
+            final Entry existing = entries.get(query);
+            if (existing == null) {
+                add(new Entry(SearchSuggestionEntity.of(query, now)));
+            } else {
+                remove(existing);
+                add(new Entry(existing.entity.used(now)));
+            }
+        }
+
+        private void add(final Entry entry) {
+            entries.put(entry.entity.query, entry);
+            ranked.add(entry);
+            for (final String gram : entry.grams()) {
+                NavigableSet<Entry> posting = postings.get(gram);
+                if (posting == null) {
+                    posting = new TreeSet<>(ORDER);
+                    postings.put(gram, posting);
+                }
+                posting.add(entry);
+            }
+        }
+
+        private void remove(final Entry entry) {
+            entries.remove(entry.entity.query);
+            ranked.remove(entry);
+            for (final String gram : entry.grams()) {
+                final NavigableSet<Entry> posting = postings.get(gram);
+                posting.remove(entry);
+                if (posting.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+
+        synchronized List<SearchSuggestionEntity> search(final String needle, final int limit) {
+            final ImmutableList.Builder<SearchSuggestionEntity> results = ImmutableList.builder();
+            int count = 0;
+            if (needle.isEmpty()) {
+                for (final Entry entry : ranked) {
+                    if (count++ >= limit) {
+                        break;
+                    }
+                    results.add(entry.entity);
+                }
+                return results.build();
+            }
+            final String normalizedNeedle = normalize(needle);
+            final int length = Math.min(GRAM_LENGTH, normalizedNeedle.length());
+            NavigableSet<Entry> candidates = null;
+            for (int offset = 0; offset + length <= normalizedNeedle.length(); ++offset) {
+                final NavigableSet<Entry> posting = postings.get(normalizedNeedle.substring(offset, offset + length));
+                if (posting == null) {
+                    return results.build();
+                }
+                if (candidates == null || posting.size() < candidates.size()) {
+                    candidates = posting;
+                }
+            }
+            for (final Entry entry : candidates) {
+                if (entry.normalized.contains(normalizedNeedle) && !entry.entity.query.equals(needle)) {
+                    results.add(entry.entity);
+                    if (++count >= limit) {
+                        break;
+                    }
+                }
+            }
+            return results.build();
+        }
+    }
+
+    private static class Entry {
+        private final SearchSuggestionEntity entity;
+        private final String normalized;
+        private final double rank;
+
+        private Entry(final SearchSuggestionEntity entity) {
+            this.entity = entity;
+            this.normalized = normalize(entity.query);
+            this.rank = rank(entity);
+        }
+
+        private Set<String> grams() {
+            final Set<String> grams = new HashSet<>();
+            for (int length = 1; length <= GRAM_LENGTH; ++length) {
+                for (int offset = 0; offset + length <= normalized.length(); ++offset) {
+                    grams.add(normalized.substring(offset, offset + length));
+                }
+            }
+            return grams;
+        }
+    }
+}
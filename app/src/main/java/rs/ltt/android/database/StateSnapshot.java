@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rs.ltt.android.database.dao.StateDao;
+import rs.ltt.android.entity.EntityState;
+import rs.ltt.android.entity.EntityType;
+import rs.ltt.jmap.mua.cache.ObjectsState;
+import rs.ltt.jmap.mua.cache.QueryStateWrapper;
+
+/**
+ * In-memory copy of the entity states and query states of an account database. Reads never
+ * touch SQLite (after the snapshot has been loaded once) and never take a lock; the writer
+ * publishes a new immutable snapshot after every committed transaction that changes a state.
+ *
+ * <p>All refresh methods must be called on the writer executor after the transaction has been
+ * committed. Lazily loaded query states are only published if no refresh happened in between, so
+ * a reader can never replace a newer state with an older one.
+ */
+public class StateSnapshot {
+
+    private final LttrsDatabase database;
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+
+    //incremented before every refresh; lets a cold load detect that it might have read stale data
+    private final AtomicInteger refreshes = new AtomicInteger();
+
+    StateSnapshot(final LttrsDatabase database) {
+        this.database = database;
+    }
+
+    public String getEntityState(final EntityType type) {
+        return get().entityStates.get(type);
+    }
+
+    public ObjectsState getObjectsState() {
+        return get().getObjectsState();
+    }
+
+    public QueryStateWrapper getQueryState(final String queryString) {
+        final Snapshot snapshot = get();
+        if (queryString == null) {
+            return snapshot.wrap(null);
+        }
+        final Optional<QueryEntry> cached = snapshot.queries.get(queryString);
+        if (cached != null) {
+            return snapshot.wrap(cached.orNull());
+        }
+        final Optional<QueryEntry> loaded = Optional.fromNullable(loadQuery(queryString));
+        current.compareAndSet(snapshot, snapshot.withQuery(queryString, loaded));
+        return snapshot.wrap(loaded.orNull());
+    }
+
+    public void refreshEntityStates() {
+        refreshes.incrementAndGet();
+        final ImmutableMap.Builder<EntityType, String> builder = new ImmutableMap.Builder<>();
+        for (final EntityState entityState : database.stateDao().getEntityStates()) {
+            if (entityState.state != null) {
+                builder.put(entityState.type, entityState.state);
+            }
+        }
+        final ImmutableMap<EntityType, String> entityStates = builder.build();
+        Snapshot snapshot;
+        do {
+            snapshot = current.get();
+            if (snapshot == null) {
+                return;
+            }
+        } while (!current.compareAndSet(snapshot, snapshot.withEntityStates(entityStates)));
+    }
+
+    public void refreshQuery(final String queryString) {
+        refreshes.incrementAndGet();
+        final Optional<QueryEntry> entry = Optional.fromNullable(loadQuery(queryString));
+        Snapshot snapshot;
+        do {
+            snapshot = current.get();
+            if (snapshot == null) {
+                return;
+            }
+        } while (!current.compareAndSet(snapshot, snapshot.withQuery(queryString, entry)));
+    }
+
+    /**
+     * Drops all query states. They will be loaded again on first access.
+     */
+    public void refreshQueries() {
+        refreshes.incrementAndGet();
+        Snapshot snapshot;
+        do {
+            snapshot = current.get();
+            if (snapshot == null) {
+                return;
+            }
+        } while (!current.compareAndSet(snapshot, snapshot.withoutQueries()));
+    }
+
+    private Snapshot get() {
+        final Snapshot snapshot = current.get();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        final int before = refreshes.get();
+        final Snapshot loaded = database.runInTransaction(this::load);
+        if (current.compareAndSet(null, loaded) && refreshes.get() != before) {
+            //a transaction committed while loading; whatever the writer did not refresh itself is discarded
+            current.compareAndSet(loaded, null);
+        }
+        final Snapshot snapshot = current.get();
+        return snapshot == null ? loaded : snapshot;
+    }
+
+    private Snapshot load() {
+        final StateDao stateDao = database.stateDao();
+        final ImmutableMap.Builder<EntityType, String> entityStates = new ImmutableMap.Builder<>();
+        for (final EntityState entityState : stateDao.getEntityStates()) {
+            if (entityState.state != null) {
+                entityStates.put(entityState.type, entityState.state);
+            }
+        }
+        final ImmutableMap.Builder<String, Optional<QueryEntry>> queries = new ImmutableMap.Builder<>();
+        for (final StateDao.NamedQueryState queryState : stateDao.getQueryStates()) {
+            queries.put(queryState.queryString, Optional.of(new QueryEntry(queryState, stateDao.getUpTo(queryState.queryString))));
+        }
+        return new Snapshot(entityStates.build(), queries.build());
+    }
+
+    private QueryEntry loadQuery(final String queryString) {
+        return database.runInTransaction(() -> {
+            final StateDao stateDao = database.stateDao();
+            final StateDao.QueryState queryState = stateDao.getQueryState(queryString);
+            if (queryState == null) {
+                return null;
+            }
+            return new QueryEntry(queryState, stateDao.getUpTo(queryString));
+        });
+    }
+
+    private static class QueryEntry {
+        private final String state;
+        private final Boolean canCalculateChanges;
+        private final QueryStateWrapper.UpTo upTo;
+
+        private QueryEntry(final StateDao.QueryState queryState, final QueryStateWrapper.UpTo upTo) {
+            this.state = queryState.state;
+            this.canCalculateChanges = queryState.canCalculateChanges;
+            this.upTo = upTo;
+        }
+    }
+
+    private static class Snapshot {
+        private final ImmutableMap<EntityType, String> entityStates;
+        //absent means the query is known to have no (valid) state; a missing key means not loaded yet
+        private final ImmutableMap<String, Optional<QueryEntry>> queries;
+
+        private Snapshot(final ImmutableMap<EntityType, String> entityStates,
+                         final ImmutableMap<String, Optional<QueryEntry>> queries) {
+            this.entityStates = entityStates;
+            this.queries = queries;
+        }
+
+        private ObjectsState getObjectsState() {
+            return new ObjectsState(
+                    entityStates.get(EntityType.MAILBOX),
+                    entityStates.get(EntityType.THREAD),
+                    entityStates.get(EntityType.EMAIL)
+            );
+        }
+
+        private QueryStateWrapper wrap(final QueryEntry entry) {
+            if (entry == null) {
+                return new QueryStateWrapper(null, false, null, getObjectsState());
+            }
+            return new QueryStateWrapper(entry.state, entry.canCalculateChanges, entry.upTo, getObjectsState());
+        }
+
+        private Snapshot withEntityStates(final ImmutableMap<EntityType, String> entityStates) {
+            return new Snapshot(entityStates, queries);
+        }
+
+        private Snapshot withQuery(final String queryString, final Optional<QueryEntry> entry) {
+            final ImmutableMap.Builder<String, Optional<QueryEntry>> builder = new ImmutableMap.Builder<>();
+            for (final Map.Entry<String, Optional<QueryEntry>> query : queries.entrySet()) {
+                if (!query.getKey().equals(queryString)) {
+                    builder.put(query);
+                }
+            }
+            builder.put(queryString, entry);
+            return new Snapshot(entityStates, builder.build());
+        }
+
+        private Snapshot withoutQueries() {
+            return new Snapshot(entityStates, ImmutableMap.of());
+        }
+    }
+}
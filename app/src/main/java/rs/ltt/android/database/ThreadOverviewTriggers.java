@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database;
+
+import android.database.Cursor;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rs.ltt.jmap.common.entity.Keyword;
+
+/**
+ * SQL triggers that maintain the thread_overview summary table. Every change to a table that
+ * contributes to the summary recomputes the row of the affected thread only. The recomputation
+ * uses the secondary indices on thread_item and email and is bounded by the size of the thread.
+ * <p>
+ * Bulk writes would recompute a thread once per row they add to it. Between {@link #defer} and
+ * {@link #flush} the triggers only note the affected threads in thread_overview_pending; each of
+ * them is recomputed once on flush. A row with an empty thread id marks the deferral as active.
+ * Both have to be called within the same transaction.
+ * <p>
+ * The senders column holds the ordered, de-duplicated FROM addresses of the thread. Entries are
+ * separated by {@link #RECORD_SEPARATOR} and consist of email, name and seen flag separated by
+ * {@link #UNIT_SEPARATOR}. Drafts are collapsed into a single entry with an empty email.
+ */
+public final class ThreadOverviewTriggers {
+
+    public static final char RECORD_SEPARATOR = 30;
+    public static final char UNIT_SEPARATOR = 31;
+    public static final char MAILBOX_SEPARATOR = ',';
+
+    private static final String PENDING_TABLE = "CREATE TABLE IF NOT EXISTS `thread_overview_pending` (`threadId` TEXT NOT NULL, PRIMARY KEY(`threadId`))";
+
+    private static final String DEFERRED = "EXISTS(SELECT 1 FROM thread_overview_pending WHERE threadId='')";
+
+    private static final String THREAD_OF_NEW_EMAIL = "(SELECT threadId FROM email WHERE id=NEW.emailId)";
+    private static final String THREAD_OF_OLD_EMAIL = "(SELECT threadId FROM email WHERE id=OLD.emailId)";
+
+    private static final String RELEVANT_KEYWORDS = String.format(
+            "('%s','%s','%s')",
+            Keyword.SEEN,
+            Keyword.FLAGGED,
+            Keyword.DRAFT
+    );
+
+    private static final List<String> TRIGGERS = new ImmutableList.Builder<String>()
+            .add(trigger("email_insert", "INSERT", "email", "NEW.threadId"))
+            .add(trigger("email_update", "UPDATE", "email", "NEW.threadId"))
+            .add(trigger("email_delete", "DELETE", "email", "OLD.threadId"))
+            .add(trigger("thread_item_insert", "INSERT", "thread_item", "NEW.threadId"))
+            .add(trigger("thread_item_update", "UPDATE", "thread_item", "NEW.threadId"))
+            .add(trigger("thread_item_delete", "DELETE", "thread_item", "OLD.threadId"))
+            .add(trigger("email_keyword_insert", "INSERT", "email_keyword", "NEW.keyword IN " + RELEVANT_KEYWORDS, THREAD_OF_NEW_EMAIL))
+            .add(trigger("email_keyword_delete", "DELETE", "email_keyword", "OLD.keyword IN " + RELEVANT_KEYWORDS, THREAD_OF_OLD_EMAIL))
+            .add(trigger("email_mailbox_insert", "INSERT", "email_mailbox", THREAD_OF_NEW_EMAIL))
+            .add(trigger("email_mailbox_delete", "DELETE", "email_mailbox", THREAD_OF_OLD_EMAIL))
+            .add(trigger("email_email_address_insert", "INSERT", "email_email_address", "NEW.type='FROM'", THREAD_OF_NEW_EMAIL))
+            .add("CREATE TRIGGER IF NOT EXISTS `thread_overview_thread_delete` AFTER DELETE ON `thread` BEGIN DELETE FROM thread_overview WHERE threadId=OLD.threadId; END")
+            .build();
+
+    private ThreadOverviewTriggers() {
+
+    }
+
+    static void create(final SupportSQLiteDatabase database) {
+        database.execSQL(PENDING_TABLE);
+        for (final String trigger : TRIGGERS) {
+            database.execSQL(trigger);
+        }
+    }
+
+    static void drop(final SupportSQLiteDatabase database) {
+        final List<String> triggers = new ArrayList<>();
+        try (final Cursor cursor = database.query("SELECT name FROM sqlite_master WHERE type='trigger' AND name LIKE 'thread\\_overview\\_%' ESCAPE '\\'")) {
+            while (cursor.moveToNext()) {
+                triggers.add(cursor.getString(0));
+            }
+        }
+        for (final String trigger : triggers) {
+            database.execSQL(String.format("DROP TRIGGER IF EXISTS `%s`", trigger));
+        }
+    }
+
+    /**
+     * @return false if the triggers are already being deferred by an outer caller
+     */
+    public static boolean defer(final SupportSQLiteDatabase database) {
+        try (final Cursor cursor = database.query("SELECT " + DEFERRED)) {
+            if (cursor.moveToFirst() && cursor.getInt(0) != 0) {
+                return false;
+            }
+        }
+        database.execSQL("INSERT INTO thread_overview_pending (threadId) VALUES ('')");
+        return true;
+    }
+
+    /**
+     * Recomputes every thread that has been touched since {@link #defer} and ends the deferral.
+     */
+    public static void flush(final SupportSQLiteDatabase database) {
+        database.execSQL("DELETE FROM thread_overview_pending WHERE threadId=''");
+        final List<String> threadIds = new ArrayList<>();
+        try (final Cursor cursor = database.query("SELECT threadId FROM thread_overview_pending")) {
+            while (cursor.moveToNext()) {
+                threadIds.add(cursor.getString(0));
+            }
+        }
+        recompute(database, threadIds);
+        database.execSQL("DELETE FROM thread_overview_pending");
+    }
+
+    /**
+     * Recomputes the summary of every thread. Used to populate the table when it is created on an
+     * existing database.
+     */
+    static void rebuild(final SupportSQLiteDatabase database) {
+        final List<String> threadIds = new ArrayList<>();
+        try (final Cursor cursor = database.query("SELECT threadId FROM thread")) {
+            while (cursor.moveToNext()) {
+                threadIds.add(cursor.getString(0));
+            }
+        }
+        recompute(database, threadIds);
+    }
+
+    private static void recompute(final SupportSQLiteDatabase database, final List<String> threadIds) {
+        final String recompute = recompute("?1");
+        for (final String threadId : threadIds) {
+            database.execSQL(recompute, new Object[]{threadId});
+        }
+    }
+
+    private static String trigger(final String name, final String event, final String table, final String threadId) {
+        return String.format(
+                "CREATE TRIGGER IF NOT EXISTS `thread_overview_%s` AFTER %s ON `%s` BEGIN %s; END",
+                name,
+                event,
+                table,
+                body(threadId)
+        );
+    }
+
+    private static String trigger(final String name, final String event, final String table, final String when, final String threadId) {
+        return String.format(
+                "CREATE TRIGGER IF NOT EXISTS `thread_overview_%s` AFTER %s ON `%s` WHEN %s BEGIN %s; END",
+                name,
+                event,
+                table,
+                when,
+                body(threadId)
+        );
+    }
+
+    private static String body(final String threadId) {
+        return recompute(threadId) + " AND NOT " + DEFERRED + "; "
+                + "INSERT OR IGNORE INTO thread_overview_pending (threadId) SELECT " + threadId + " WHERE " + DEFERRED;
+    }
+
+    private static String recompute(final String threadId) {
+        final String seen = Keyword.SEEN;
+        final String flagged = Keyword.FLAGGED;
+        final String draft = Keyword.DRAFT;
+        return "INSERT OR REPLACE INTO thread_overview (threadId,subject,preview,receivedAt,emailCount,seen,flagged,mailboxIds,senders) SELECT thread.threadId,"
+                + "(SELECT ifnull(email.subject,'') FROM thread_item JOIN email ON email.id=thread_item.emailId WHERE thread_item.threadId=" + threadId + " ORDER BY thread_item.position LIMIT 1),"
+                + "(SELECT ifnull(email.preview,'') FROM thread_item JOIN email ON email.id=thread_item.emailId WHERE thread_item.threadId=" + threadId + " ORDER BY thread_item.position DESC LIMIT 1),"
+                + "(SELECT max(email.receivedAt) FROM thread_item JOIN email ON email.id=thread_item.emailId WHERE thread_item.threadId=" + threadId + "),"
+                + "(SELECT count(*) FROM thread_item WHERE thread_item.threadId=" + threadId + "),"
+                + "NOT EXISTS(SELECT 1 FROM thread_item JOIN email ON email.id=thread_item.emailId WHERE thread_item.threadId=" + threadId + " AND NOT EXISTS(SELECT 1 FROM email_keyword WHERE email_keyword.emailId=email.id AND email_keyword.keyword='" + seen + "')),"
+                + "EXISTS(SELECT 1 FROM thread_item JOIN email ON email.id=thread_item.emailId JOIN email_keyword ON email_keyword.emailId=email.id WHERE thread_item.threadId=" + threadId + " AND email_keyword.keyword='" + flagged + "'),"
+                + "(SELECT group_concat(DISTINCT email_mailbox.mailboxId) FROM email JOIN email_mailbox ON email_mailbox.emailId=email.id WHERE email.threadId=" + threadId + "),"
+                + "(SELECT group_concat(sender.address || char(31) || ifnull(sender.name,'') || char(31) || sender.seen, char(30)) FROM ("
+                + "SELECT address,name,min(sortKey) AS sortKey,count(*)=sum(seen) AS seen FROM ("
+                + "SELECT '' AS address,NULL AS name,thread_item.position*65536 AS sortKey,1 AS seen FROM thread_item JOIN email ON email.id=thread_item.emailId JOIN email_keyword ON email_keyword.emailId=email.id WHERE thread_item.threadId=" + threadId + " AND email_keyword.keyword='" + draft + "'"
+                + " UNION ALL "
+                + "SELECT email_email_address.email,email_email_address.name,thread_item.position*65536+email_email_address.position,EXISTS(SELECT 1 FROM email_keyword WHERE email_keyword.emailId=email.id AND email_keyword.keyword='" + seen + "') FROM thread_item JOIN email ON email.id=thread_item.emailId JOIN email_email_address ON email_email_address.emailId=email.id WHERE thread_item.threadId=" + threadId + " AND email_email_address.type='FROM' AND email_email_address.email IS NOT NULL AND NOT EXISTS(SELECT 1 FROM email_keyword WHERE email_keyword.emailId=email.id AND email_keyword.keyword='" + draft + "')"
+                + ") GROUP BY address ORDER BY sortKey) AS sender)"
+                + " FROM thread WHERE thread.threadId=" + threadId;
+    }
+}
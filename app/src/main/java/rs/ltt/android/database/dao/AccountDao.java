@@ -31,18 +31,14 @@ import okhttp3.HttpUrl;
 import rs.ltt.android.entity.AccountEntity;
 import rs.ltt.android.entity.AccountName;
 import rs.ltt.android.entity.AccountWithCredentials;
-import rs.ltt.android.entity.AccountName;
 import rs.ltt.android.entity.CredentialsEntity;
 import rs.ltt.jmap.common.entity.Account;
 
 @Dao
 public abstract class AccountDao {
 
-    @Query("select account.id as id, username,password,sessionResource,accountId from credentials join account on credentialsId = credentials.id where account.id=:id limit 1")
-    public abstract ListenableFuture<AccountWithCredentials> getAccountFuture(Long id);
-
-    @Query("select account.id as id, username,password,sessionResource,accountId from credentials join account on credentialsId = credentials.id where account.id=:id limit 1")
-    public abstract AccountWithCredentials getAccount(Long id);
+    @Query("select account.id as id, username,password,sessionResource,accountId from credentials join account on credentialsId = credentials.id order by selected desc")
+    public abstract ListenableFuture<List<AccountWithCredentials>> getAccountsFuture();
 
     @Query("select id,name from account where id=:id limit 1")
     public abstract LiveData<AccountName> getAccountName(Long id);
@@ -53,12 +49,6 @@ public abstract class AccountDao {
     @Query("select id from account")
     public abstract LiveData<List<Long>> getAccountIds();
 
-    @Query("select id from account order by selected desc limit 1")
-    public abstract Long getMostRecentlySelectedAccountId();
-
-    @Query("select exists (select 1 from account)")
-    public abstract boolean hasAccounts();
-
     @Insert
     abstract Long insert(CredentialsEntity entity);
 
@@ -22,8 +22,6 @@ import androidx.room.Insert;
 import androidx.room.Query;
 import androidx.room.Transaction;
 
-import com.google.common.util.concurrent.ListenableFuture;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -95,8 +93,11 @@ public abstract class OverwriteDao {
         }
     }
 
-    @Query("select * from keyword_overwrite where threadId=:threadId")
-    public abstract ListenableFuture<KeywordOverwriteEntity> getKeywordOverwrite(String threadId);
+    @Query("select * from keyword_overwrite")
+    public abstract List<KeywordOverwriteEntity> getAllKeywordOverwrites();
+
+    @Query("select * from mailbox_overwrite")
+    public abstract List<MailboxOverwriteEntity> getAllMailboxOverwrites();
 
     @Query("select * from mailbox_overwrite where threadId=:threadId")
     public abstract LiveData<List<MailboxOverwriteEntity>> getMailboxOverwrites(String threadId);
@@ -19,13 +19,18 @@ import androidx.paging.DataSource;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.RoomDatabase;
 import androidx.room.Transaction;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
+import rs.ltt.android.cache.CacheMetrics;
+import rs.ltt.android.database.LttrsDatabase;
 import rs.ltt.android.entity.EntityType;
 import rs.ltt.android.entity.QueryEntity;
 import rs.ltt.android.entity.QueryItem;
@@ -33,6 +38,7 @@ import rs.ltt.android.entity.QueryItemEntity;
 import rs.ltt.android.entity.ThreadOverviewItem;
 import rs.ltt.jmap.common.entity.AddedItem;
 import rs.ltt.jmap.common.entity.Email;
+import rs.ltt.jmap.common.entity.Role;
 import rs.ltt.jmap.common.entity.TypedState;
 import rs.ltt.jmap.mua.cache.QueryUpdate;
 import rs.ltt.jmap.mua.cache.exception.CacheConflictException;
@@ -47,6 +53,16 @@ public abstract class QueryDao extends AbstractEntityDao {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryDao.class);
 
+    private final RoomDatabase database;
+
+    public QueryDao(final RoomDatabase database) {
+        this.database = database;
+    }
+
+    private CacheMetrics getMetrics() {
+        return ((LttrsDatabase) database).getCacheMetrics();
+    }
+
     @Insert(onConflict = REPLACE)
     abstract long insert(QueryEntity entity);
 
@@ -62,21 +78,41 @@ public abstract class QueryDao extends AbstractEntityDao {
     @Query("select * from `query` where queryString=:queryString and valid=1 limit 1")
     public abstract QueryEntity get(String queryString);
 
-    @Query("select position,emailId from query_item where queryId=:queryId order by position desc limit 1")
+    //query_item.position is a sparse sort key; the position returned here is the index of the item
+    @Query("select (select count(id) - 1 from query_item where queryId=:queryId) as position,emailId from query_item where queryId=:queryId order by query_item.position desc limit 1")
     abstract QueryItem getLastQueryItem(Long queryId);
 
+    @Query("select max(position) from query_item where queryId=:queryId")
+    abstract Long getMaxPosition(Long queryId);
+
+    @Query("select position from query_item where queryId=:queryId order by position limit 1 offset :index")
+    abstract Long getPositionAt(Long queryId, long index);
+
     @Query("select count(id) from query_item where queryId=:queryId")
     abstract int getItemCount(Long queryId);
 
     @Query("delete from `query` where queryString=:queryString")
     abstract void deleteQuery(String queryString);
 
-    //we inner join on threads here to make sure that we only return items that we actually have
+    //we inner join on thread_overview here to make sure that we only return items that we actually have
     //due to the delay of fetchMissing we might have query_items that we do not have a corresponding thread for
-    @Transaction
-    @Query("select query_item.threadId,query_item.emailId from `query` join query_item on `query`.id = query_item.queryId inner join thread on query_item.threadId=thread.threadId where queryString=:queryString  and  query_item.threadId not in (select threadId from query_item_overwrite where queryId=`query`.id) order by position asc")
+    @Query("select query_item.threadId,query_item.emailId,subject,preview,receivedAt,emailCount,seen,flagged,mailboxIds,senders " +
+            "from `query` join query_item on `query`.id = query_item.queryId inner join thread_overview on query_item.threadId=thread_overview.threadId where queryString=:queryString  and  query_item.threadId not in (select threadId from query_item_overwrite where queryId=`query`.id) order by position asc")
     public abstract DataSource.Factory<Integer, ThreadOverviewItem> getThreadOverviewItems(String queryString);
 
+    //server results (in server order) followed by threads that only the local full text index knows about
+    //(newest first). A thread the server has returned is never listed twice.
+    @Query("select hit.threadId,hit.emailId,subject,preview,receivedAt,emailCount,seen,flagged,mailboxIds,senders " +
+            "from (" +
+            "select query_item.threadId as threadId,query_item.emailId as emailId,0 as source,query_item.position as sortKey from `query` join query_item on `query`.id = query_item.queryId where queryString=:queryString and query_item.threadId not in (select threadId from query_item_overwrite where queryId=`query`.id) " +
+            "union all " +
+            "select email.threadId,email.id,1,-max(email.receivedAt) from email_fts join email on email_fts.emailId=email.id where email_fts match :match and email.threadId not in (select query_item.threadId from `query` join query_item on `query`.id = query_item.queryId where queryString=:queryString) and email.id not in (select email_mailbox.emailId from mailbox join email_mailbox on mailbox.id=email_mailbox.mailboxId where role in (:excludedRoles)) group by email.threadId" +
+            ") as hit inner join thread_overview on hit.threadId=thread_overview.threadId order by source asc,sortKey asc")
+    public abstract DataSource.Factory<Integer, ThreadOverviewItem> getSearchResults(String queryString, String match, Role[] excludedRoles);
+
+    @Query("select emailId from `query` join query_item on `query`.id = query_item.queryId where queryString=:queryString order by position desc limit 1")
+    public abstract ListenableFuture<String> getLastEmailIdFuture(String queryString);
+
     @Transaction
     public void set(String queryString, QueryResult queryResult) {
         TypedState<Email> emailState = queryResult.objectState;
@@ -89,6 +125,7 @@ public abstract class QueryDao extends AbstractEntityDao {
 
         long queryId = insert(QueryEntity.of(queryString, queryResult.queryState.getState(), queryResult.canCalculateChanges));
         insert(QueryItemEntity.of(queryId, queryResult.items, 0));
+        getMetrics().recordWritten("query_item", queryResult.items.length);
     }
 
     @Transaction
@@ -121,22 +158,32 @@ public abstract class QueryDao extends AbstractEntityDao {
         }
 
         if (queryResult.items.length > 0) {
-            insert(QueryItemEntity.of(queryEntity.id, queryResult.items, queryResult.position));
+            final long firstPosition = getMaxPosition(queryEntity.id) + QueryItemEntity.POSITION_GAP;
+            insert(QueryItemEntity.of(queryEntity.id, queryResult.items, firstPosition));
+            getMetrics().recordWritten("query_item", queryResult.items.length);
         }
     }
 
     @Query("select * from `query` where queryString=:queryString")
     abstract QueryEntity getQueryEntity(String queryString);
 
-    @Query("update query_item set position=position+1 where queryId=:queryId and position>=:position ")
-    abstract int incrementAllPositionsFrom(Long queryId, Long position);
+    @Query("select id from query_item where queryId=:queryId order by position")
+    abstract List<Long> getQueryItemIds(Long queryId);
 
-    //TODO: is this query safe to run when emailId is not found
-    @Query("update query_item set position=position-1 where queryId=:queryId and position>(select position from query_item where emailId=:emailId and queryId=:queryId)")
-    abstract void decrementAllPositionsFrom(Long queryId, String emailId);
+    @Query("update query_item set position=:position where id=:id")
+    abstract void setPosition(Long id, long position);
+
+    //spreads all items of a query evenly with POSITION_GAP while retaining their order
+    private int rebalancePositions(final Long queryId) {
+        final List<Long> ids = getQueryItemIds(queryId);
+        for (int i = 0; i < ids.size(); ++i) {
+            setPosition(ids.get(i), i * QueryItemEntity.POSITION_GAP);
+        }
+        return ids.size();
+    }
 
     @Query("delete from query_item where queryId=:queryId and emailId=:emailId")
-    abstract void deleteQueryItem(Long queryId, String emailId);
+    abstract int deleteQueryItem(Long queryId, String emailId);
 
     @Query("update `query` set state=:newState where state=:oldState and id=:queryId")
     abstract int updateQueryState(Long queryId, String newState, String oldState);
@@ -144,6 +191,30 @@ public abstract class QueryDao extends AbstractEntityDao {
     @Query("select state from `query` where queryString=:queryString")
     abstract String getQueryState(String queryString);
 
+    /**
+     * Finds a free sort key that places a new item at the given index. Only the neighbouring
+     * rows are read; if they have run out of room between them the query is rebalanced first.
+     */
+    private long getPositionForIndex(final Long queryId, final long index) {
+        final Long next = getPositionAt(queryId, index);
+        final Long previous = index == 0 ? null : getPositionAt(queryId, index - 1);
+        if (previous == null && next == null) {
+            return 0;
+        }
+        if (next == null) {
+            return previous + QueryItemEntity.POSITION_GAP;
+        }
+        if (previous == null) {
+            return next - QueryItemEntity.POSITION_GAP;
+        }
+        if (next - previous > 1) {
+            return previous + (next - previous) / 2;
+        }
+        final int count = rebalancePositions(queryId);
+        LOGGER.info("rebalanced positions of {} query items in query {}", count, queryId);
+        return index * QueryItemEntity.POSITION_GAP - QueryItemEntity.POSITION_GAP / 2;
+    }
+
     @Transaction
     public void updateQueryResults(String queryString, QueryUpdate<Email, QueryResultItem> queryUpdate, final TypedState<Email> emailState) {
         final String newState = queryUpdate.getNewTypedState().getState();
@@ -160,19 +231,19 @@ public abstract class QueryDao extends AbstractEntityDao {
 
         for (String emailId : queryUpdate.getRemoved()) {
             LOGGER.debug("deleting emailId=" + emailId + " from queryId=" + queryEntity.id);
-            decrementAllPositionsFrom(queryEntity.id, emailId);
-            deleteQueryItem(queryEntity.id, emailId);
+            getMetrics().recordDeleted("query_item", deleteQueryItem(queryEntity.id, emailId));
         }
         for (AddedItem<QueryResultItem> addedItem : queryUpdate.getAdded()) {
             LOGGER.debug("adding item {}", addedItem);
-            LOGGER.debug("increment all positions where queryId={} and position={}", queryEntity.id, addedItem.getIndex());
-
-            if (incrementAllPositionsFrom(queryEntity.id, addedItem.getIndex()) == 0 && getItemCount(queryEntity.id) != addedItem.getIndex()) {
-                LOGGER.debug("ignoring query item change at position = {}", addedItem.getIndex());
+            final long index = addedItem.getIndex();
+            if (index > getItemCount(queryEntity.id)) {
+                LOGGER.debug("ignoring query item change at position = {}", index);
                 continue;
             }
-            LOGGER.debug("insert queryItemEntity on position {} and id={}", addedItem.getIndex(), queryEntity.id);
-            insert(QueryItemEntity.of(queryEntity.id, addedItem.getIndex(), addedItem.getItem()));
+            final long position = getPositionForIndex(queryEntity.id, index);
+            LOGGER.debug("insert queryItemEntity on index {} (position {}) and id={}", index, position, queryEntity.id);
+            insert(QueryItemEntity.of(queryEntity.id, position, addedItem.getItem()));
+            getMetrics().recordWritten("query_item", 1);
         }
 
         if (updateQueryState(queryEntity.id, newState, oldState) != 1) {
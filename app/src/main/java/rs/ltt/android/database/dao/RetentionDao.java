@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.database.dao;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.List;
+
+import rs.ltt.android.entity.TableStatistics;
+import rs.ltt.android.entity.ThreadAccessEntity;
+
+import static androidx.room.OnConflictStrategy.REPLACE;
+
+@Dao
+public abstract class RetentionDao {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetentionDao.class);
+
+    @Insert(onConflict = REPLACE)
+    abstract void insert(ThreadAccessEntity entity);
+
+    public void touch(final String threadId) {
+        insert(new ThreadAccessEntity(threadId, Instant.now()));
+    }
+
+    @Query("select id from `query`")
+    abstract List<Long> getQueryIds();
+
+    @Query("select position from query_item where queryId=:queryId order by position limit 1 offset :index")
+    abstract Long getPositionAt(Long queryId, long index);
+
+    @Query("delete from query_item where queryId=:queryId and position>:position")
+    abstract int deleteQueryItemsAfter(Long queryId, long position);
+
+    /**
+     * Cuts every cached query down to its first maxItems items. The query state stays valid; the
+     * mua pages (and thereby refetches) the removed part once the user scrolls that far.
+     *
+     * @return the number of removed query items
+     */
+    @Transaction
+    public int truncateQueries(final int maxItems) {
+        int removed = 0;
+        for (final Long queryId : getQueryIds()) {
+            final Long last = getPositionAt(queryId, maxItems - 1);
+            if (last != null) {
+                removed += deleteQueryItemsAfter(queryId, last);
+            }
+        }
+        return removed;
+    }
+
+    //threads that no query refers to, least recently used first
+    @Query("select thread.threadId from thread left join thread_access on thread.threadId=thread_access.threadId where thread.threadId not in (select query_item.threadId from query_item) order by ifnull(lastAccessedAt,0) asc limit :limit")
+    abstract List<String> getEvictionCandidates(int limit);
+
+    @Query("delete from thread where threadId in (:threadIds)")
+    abstract void deleteThreads(List<String> threadIds);
+
+    @Query("delete from email_fts where rowid in (select rowid from email where threadId in (:threadIds))")
+    abstract void deleteFullText(List<String> threadIds);
+
+    @Query("delete from email where threadId in (:threadIds)")
+    abstract int deleteEmails(List<String> threadIds);
+
+    @Query("delete from thread_access where threadId in (:threadIds)")
+    abstract void deleteThreadAccess(List<String> threadIds);
+
+    /**
+     * Removes up to limit threads including their emails. The thread is deleted first so that
+     * the thread_overview triggers do not recompute a summary for a thread that is going away.
+     *
+     * @return the number of evicted threads
+     */
+    @Transaction
+    public int evict(final int limit) {
+        final List<String> threadIds = getEvictionCandidates(limit);
+        if (threadIds.isEmpty()) {
+            return 0;
+        }
+        deleteThreads(threadIds);
+        deleteFullText(threadIds);
+        final int emails = deleteEmails(threadIds);
+        deleteThreadAccess(threadIds);
+        LOGGER.debug("evicted {} threads with {} emails", threadIds.size(), emails);
+        return threadIds.size();
+    }
+
+    @Query("select 'thread' as name,count(*) as rowCount from thread" +
+            " union all select 'thread_item',count(*) from thread_item" +
+            " union all select 'email',count(*) from email" +
+            " union all select 'email_body_value',count(*) from email_body_value" +
+            " union all select 'email_body_part',count(*) from email_body_part" +
+            " union all select 'email_email_address',count(*) from email_email_address" +
+            " union all select 'email_keyword',count(*) from email_keyword" +
+            " union all select 'email_mailbox',count(*) from email_mailbox" +
+            " union all select 'query',count(*) from `query`" +
+            " union all select 'query_item',count(*) from query_item")
+    public abstract List<TableStatistics> getTableStatistics();
+}
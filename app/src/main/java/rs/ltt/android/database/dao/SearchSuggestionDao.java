@@ -15,33 +15,36 @@
 
 package rs.ltt.android.database.dao;
 
-import android.app.SearchManager;
-import android.database.Cursor;
-import android.provider.BaseColumns;
-
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.Transaction;
 
+import java.time.Instant;
 import java.util.List;
 
-import rs.ltt.android.R;
 import rs.ltt.android.entity.SearchSuggestionEntity;
 
-import static androidx.room.OnConflictStrategy.REPLACE;
+import static androidx.room.OnConflictStrategy.IGNORE;
 
 @Dao
 public abstract class SearchSuggestionDao {
 
-    @Query("select id as "+ BaseColumns._ID +", `query` as "+ SearchManager.SUGGEST_COLUMN_TEXT_1+","+ R.drawable.ic_restore_24dp +" as "+SearchManager.SUGGEST_COLUMN_ICON_1+",`query` as "+SearchManager.SUGGEST_COLUMN_QUERY+" from search_suggestion where `query` like :needle and `query` is not :actual order by id desc limit 30")
-    abstract Cursor getSearchSuggestions(String needle, String actual);
+    @Query("select * from search_suggestion")
+    public abstract List<SearchSuggestionEntity> getSearchSuggestions();
 
-    public Cursor getSearchSuggestions(String needle) {
-        return getSearchSuggestions('%'+needle+(needle.isEmpty()?"":"%"), needle);
-    }
+    @Insert(onConflict = IGNORE)
+    abstract long insert(SearchSuggestionEntity entity);
 
-    @Insert(onConflict = REPLACE)
-    public abstract void insert(SearchSuggestionEntity entity);
+    @Query("update search_suggestion set useCount=useCount+1,lastUsedAt=:lastUsedAt where `query`=:query")
+    abstract int used(String query, Instant lastUsedAt);
+
+    @Transaction
+    public void record(final String query, final Instant lastUsedAt) {
+        if (used(query, lastUsedAt) == 0) {
+            insert(SearchSuggestionEntity.of(query, lastUsedAt));
+        }
+    }
 
     @Query("select `query` from search_suggestion")
     public abstract List<String> getSearchQueries();
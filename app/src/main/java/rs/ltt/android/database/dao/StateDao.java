@@ -33,6 +33,12 @@ public abstract class StateDao {
     @Query("select state,type from entity_state where type in (:types)")
     public abstract List<EntityState> getEntityStates(List<EntityType> types);
 
+    @Query("select state,type from entity_state")
+    public abstract List<EntityState> getEntityStates();
+
+    @Query("select queryString,state,canCalculateChanges from `query` where valid=1")
+    public abstract List<NamedQueryState> getQueryStates();
+
     public ObjectsState getObjectsState() {
         final List<EntityState> entityStates = getEntityStates(
                 Arrays.asList(EntityType.EMAIL, EntityType.MAILBOX, EntityType.THREAD)
@@ -59,10 +65,11 @@ public abstract class StateDao {
     }
 
     @Query("select state,canCalculateChanges from `query` where queryString=:queryString and valid=1")
-    abstract QueryState getQueryState(String queryString);
+    public abstract QueryState getQueryState(String queryString);
 
-    @Query("select emailId as id,position from `query` join query_item on `query`.id = queryId  where queryString=:queryString order by position desc limit 1")
-    abstract QueryStateWrapper.UpTo getUpTo(String queryString);
+    //query_item.position is a sparse sort key; the position reported to the mua library is the index
+    @Query("select emailId as id,(select count(id) - 1 from query_item where queryId=`query`.id) as position from `query` join query_item on `query`.id = queryId  where queryString=:queryString order by query_item.position desc limit 1")
+    public abstract QueryStateWrapper.UpTo getUpTo(String queryString);
 
     @Query("update `query` set valid=0 where queryString=:queryString")
     public abstract void invalidateQueryState(String queryString);
@@ -100,4 +107,8 @@ public abstract class StateDao {
         public String state;
         public Boolean canCalculateChanges;
     }
+
+    public static class NamedQueryState extends QueryState {
+        public String queryString;
+    }
 }
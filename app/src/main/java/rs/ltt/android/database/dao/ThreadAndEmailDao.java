@@ -22,21 +22,39 @@ import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.RoomDatabase;
 import androidx.room.Transaction;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Set;
+
+import rs.ltt.android.cache.CacheMetrics;
+import rs.ltt.android.database.BodyStore;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.database.ThreadOverviewTriggers;
+import rs.ltt.android.entity.BodySize;
+import rs.ltt.android.entity.BodyStructure;
 import rs.ltt.android.entity.EditableEmail;
+import rs.ltt.android.entity.EmailBody;
 import rs.ltt.android.entity.EmailBodyPartEntity;
 import rs.ltt.android.entity.EmailBodyValueEntity;
 import rs.ltt.android.entity.EmailEmailAddressEntity;
 import rs.ltt.android.entity.EmailEntity;
+import rs.ltt.android.entity.EmailFtsEntity;
 import rs.ltt.android.entity.EmailInReplyToEntity;
 import rs.ltt.android.entity.EmailKeywordEntity;
 import rs.ltt.android.entity.EmailMailboxEntity;
@@ -61,8 +79,26 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ThreadAndEmailDao.class);
 
+    //stays well below SQLITE_MAX_VARIABLE_NUMBER (999) on older devices
+    private static final int MAX_BIND_PARAMETERS = 500;
+
+    private final RoomDatabase database;
+
+    public ThreadAndEmailDao(final RoomDatabase database) {
+        this.database = database;
+    }
+
+    private BodyStore getBodyStore() {
+        return ((LttrsDatabase) database).getBodyStore();
+    }
+
+    //rows are counted when written; a transaction that is rolled back afterwards is still counted
+    private CacheMetrics getMetrics() {
+        return ((LttrsDatabase) database).getCacheMetrics();
+    }
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    abstract void insert(ThreadEntity entity);
+    abstract void insertThreads(List<ThreadEntity> entities);
 
     @Insert
     abstract void insert(List<ThreadItemEntity> entities);
@@ -71,31 +107,42 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
     abstract void deleteAllThreadItem(String threadId);
 
     @Delete
-    abstract void delete(ThreadEntity thread);
+    abstract int delete(ThreadEntity thread);
 
     @Query("delete from thread")
-    abstract void deleteAllThread();
+    abstract int deleteAllThread();
 
-    private void set(Thread[] threads, String state) {
-        deleteAllThread();
-        if (threads.length > 0) {
-            insertThreads(threads);
-        }
+    private int set(Thread[] threads, String state) {
+        getMetrics().recordDeleted("thread", deleteAllThread());
+        final int rows = threads.length > 0 ? insertThreads(threads) : 0;
         insert(new EntityStateEntity(EntityType.THREAD, state));
+        return rows;
     }
 
-    private void add(final TypedState<Thread> expectedState, Thread[] threads) {
-        if (threads.length > 0) {
-            insertThreads(threads);
-        }
+    private int add(final TypedState<Thread> expectedState, Thread[] threads) {
+        final int rows = threads.length > 0 ? insertThreads(threads) : 0;
         throwOnCacheConflict(EntityType.THREAD, expectedState);
+        return rows;
     }
 
-    private void insertThreads(Thread[] threads) {
-        for (Thread thread : threads) {
-            insert(ThreadEntity.of(thread));
-            insert(ThreadItemEntity.of(thread));
+    /**
+     * Flattens all threads into one list per table so that each table is written with a single
+     * (reused) prepared statement instead of two statements per thread.
+     *
+     * @return the number of rows written
+     */
+    private int insertThreads(Thread[] threads) {
+        final List<ThreadEntity> threadEntities = new ArrayList<>(threads.length);
+        final List<ThreadItemEntity> threadItemEntities = new ArrayList<>();
+        for (final Thread thread : threads) {
+            threadEntities.add(ThreadEntity.of(thread));
+            threadItemEntities.addAll(ThreadItemEntity.of(thread));
         }
+        insertThreads(threadEntities);
+        insert(threadItemEntities);
+        getMetrics().recordWritten("thread", threadEntities.size());
+        getMetrics().recordWritten("thread_item", threadItemEntities.size());
+        return threadEntities.size() + threadItemEntities.size();
     }
 
     @Query("SELECT EXISTS(SELECT 1 FROM thread WHERE threadId=:threadId)")
@@ -103,6 +150,13 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
 
     @Transaction
     public void update(Update<Thread> update) {
+        withDeferredOverview(() -> {
+            applyThreadUpdate(update);
+            return null;
+        });
+    }
+
+    private void applyThreadUpdate(final Update<Thread> update) {
         final String newState = update.getNewTypedState().getState();
         if (newState != null && newState.equals(getState(EntityType.THREAD))) {
             LOGGER.debug("nothing to do. threads already at newest state");
@@ -115,13 +169,15 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
         for (final Thread thread : update.getUpdated()) {
             if (threadExists(thread.getId())) {
                 deleteAllThreadItem(thread.getId());
-                insert(ThreadItemEntity.of(thread));
+                final List<ThreadItemEntity> threadItemEntities = ThreadItemEntity.of(thread);
+                insert(threadItemEntities);
+                getMetrics().recordWritten("thread_item", threadItemEntities.size());
             } else {
                 LOGGER.debug("skipping update to thread " + thread.getId());
             }
         }
         for (final String id : update.getDestroyed()) {
-            delete(ThreadEntity.of(id));
+            getMetrics().recordDeleted("thread", delete(ThreadEntity.of(id)));
         }
         throwOnUpdateConflict(EntityType.THREAD, update.getOldTypedState(), update.getNewTypedState());
     }
@@ -138,16 +194,42 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
     }
 
     @Query("delete from email where id=:id")
-    abstract void deleteEmail(String id);
+    abstract int deleteEmailEntity(String id);
+
+    @Query("delete from email_fts where rowid=(select rowid from email where id=:id)")
+    abstract void deleteFullText(String id);
 
-    @Query("delete from email_keyword where emailId=:emailId")
-    abstract void deleteKeywords(String emailId);
+    @Query("delete from email_fts where rowid in (select rowid from email where id in (:ids))")
+    abstract void deleteFullText(Collection<String> ids);
 
-    @Query("delete from email_mailbox where emailId=:emailId")
-    abstract void deleteMailboxes(String emailId);
+    @Query("delete from email_fts")
+    abstract void deleteAllFullText();
 
+    private void deleteEmail(final String id) {
+        deleteFullText(id);
+        getMetrics().recordDeleted("email", deleteEmailEntity(id));
+    }
+
+    @Query("select keyword from email_keyword where emailId=:emailId")
+    abstract List<String> getKeywords(String emailId);
+
+    @Query("delete from email_keyword where emailId=:emailId and keyword in (:keywords)")
+    abstract void deleteKeywords(String emailId, Collection<String> keywords);
+
+    @Query("select mailboxId from email_mailbox where emailId=:emailId")
+    abstract List<String> getMailboxIds(String emailId);
+
+    @Query("delete from email_mailbox where emailId=:emailId and mailboxId in (:mailboxIds)")
+    abstract void deleteMailboxes(String emailId, Collection<String> mailboxIds);
+
+    /**
+     * @return the rowids of the inserted emails, in the same order as the entities
+     */
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    abstract void insert(EmailEntity entity);
+    abstract long[] insertEmails(List<EmailEntity> entities);
+
+    @Insert
+    abstract void insertFullText(List<EmailFtsEntity> entities);
 
     @Insert
     abstract void insertEmailAddresses(List<EmailEmailAddressEntity> entities);
@@ -173,6 +255,9 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
     @Query("select threadId from email where id=:emailId")
     public abstract String getThreadId(String emailId);
 
+    @Query("select reference from email_body_value where reference is not null")
+    public abstract List<String> getBodyReferences();
+
     @Transaction
     @Query("select id from email where threadId=:threadId")
     public abstract List<EmailWithKeywords> getEmailsWithKeywords(String threadId);
@@ -193,6 +278,17 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
     @Query("select id,receivedAt,preview,email.threadId from thread_item join email on thread_item.emailId=email.id where thread_item.threadId=:threadId order by position")
     public abstract DataSource.Factory<Integer, FullEmail> getEmails(String threadId);
 
+    @Transaction
+    @Query("select id,receivedAt,preview,email.threadId from thread_item join email on thread_item.emailId=email.id where thread_item.threadId=:threadId order by position limit :limit")
+    public abstract ListenableFuture<List<FullEmail>> getEmails(String threadId, int limit);
+
+    @Transaction
+    @Query("select id from email where id=:id")
+    public abstract ListenableFuture<EmailBody> getEmailBody(String id);
+
+    @Query("select coalesce(sum(length(value)),0) as length,count(reference)>0 as stored from email_body_value where emailId=:emailId")
+    public abstract ListenableFuture<BodySize> getBodySize(String emailId);
+
     @Transaction
     @Query("select :accountId as accountId,id,threadId,subject from email where id=:id")
     public abstract ListenableFuture<EditableEmail> getEditableEmail(Long accountId, String id);
@@ -212,14 +308,14 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
     public abstract ListenableFuture<List<ExpandedPosition>> getMaxPosition(String threadId);
 
     @Query("delete from email")
-    abstract void deleteAllEmail();
+    abstract int deleteAllEmail();
 
-    private void set(final Email[] emails, final String state) {
-        deleteAllEmail();
-        if (emails.length > 0) {
-            insertEmails(emails);
-        }
+    private int set(final Email[] emails, final String state) {
+        deleteAllFullText();
+        getMetrics().recordDeleted("email", deleteAllEmail());
+        final int rows = emails.length > 0 ? insertEmails(emails) : 0;
         insert(new EntityStateEntity(EntityType.EMAIL, state));
+        return rows;
     }
 
     @Query("delete from keyword_overwrite where threadId=(select threadId from email where id=:emailId)")
@@ -231,43 +327,87 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
     @Query("update query_item_overwrite set executed=1 where executed=0 and threadId IN(select email.threadid from email where email.id=:emailId)")
     protected abstract int markAsExecuted(String emailId);
 
+    /**
+     * @return the total number of rows written across all tables
+     */
     @Transaction
-    public void add(final TypedState<Thread> expectedThreadState, Thread[] threads, final TypedState<Email> expectedEmailState, final Email[] emails) {
-        add(expectedThreadState, threads);
-        add(expectedEmailState, emails);
+    public int add(final TypedState<Thread> expectedThreadState, Thread[] threads, final TypedState<Email> expectedEmailState, final Email[] emails) {
+        return withDeferredOverview(() -> add(expectedThreadState, threads) + add(expectedEmailState, emails));
     }
 
+    /**
+     * @return the total number of rows written across all tables
+     */
     @Transaction
-    public void set(final TypedState<Thread> threadState, Thread[] threads, final TypedState<Email> emailState, final Email[] emails) {
-        set(threads, threadState.getState());
-        set(emails, emailState.getState());
+    public int set(final TypedState<Thread> threadState, Thread[] threads, final TypedState<Email> emailState, final Email[] emails) {
+        return withDeferredOverview(() -> set(threads, threadState.getState()) + set(emails, emailState.getState()));
     }
 
-    private void add(final TypedState<Email> expectedState, Email[] email) {
-        if (email.length > 0) {
-            insertEmails(email);
+    /**
+     * Runs the writes with the thread overview triggers deferred, so every thread they touch is
+     * recomputed once at the end instead of once per row. Nested calls join the outermost
+     * deferral. Must be called within a transaction.
+     */
+    private <T> T withDeferredOverview(final Supplier<T> writes) {
+        final SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        final boolean deferred = ThreadOverviewTriggers.defer(db);
+        final T result = writes.get();
+        if (deferred) {
+            ThreadOverviewTriggers.flush(db);
         }
+        return result;
+    }
+
+    private int add(final TypedState<Email> expectedState, Email[] email) {
+        final int rows = email.length > 0 ? insertEmails(email) : 0;
         throwOnCacheConflict(EntityType.EMAIL, expectedState);
+        return rows;
     }
 
     @Query("SELECT EXISTS(SELECT 1 FROM email WHERE id=:emailId)")
     protected abstract boolean emailExists(String emailId);
 
-    private void insertEmails(final Email[] emails) {
+    /**
+     * Flattens all emails into one list per table and writes each table with a single (reused)
+     * prepared statement. Room binds every element of a list insert against the same statement,
+     * so this turns eight statement compilations per email into eight per batch.
+     *
+     * @return the number of rows written
+     */
+    private int insertEmails(final Email[] emails) {
+        final EmailBatch batch = new EmailBatch(getBodyStore(), emails.length);
         for (final Email email : emails) {
-            insert(EmailEntity.of(email));
-            insertInReplyTo(EmailInReplyToEntity.of(email));
-            insertMessageId(EmailMessageIdEntity.of(email));
-            insertEmailAddresses(EmailEmailAddressEntity.of(email));
-            insertMailboxes(EmailMailboxEntity.of(email));
-            insertKeywords(EmailKeywordEntity.of(email));
-            insertEmailBodyParts(EmailBodyPartEntity.of(email));
-            insertEmailBodyValues(EmailBodyValueEntity.of(email));
+            batch.add(email);
         }
+        //REPLACE gives an email that we already had a new rowid; drop the index entry of the old one
+        for (final List<String> ids : Lists.partition(batch.ids, MAX_BIND_PARAMETERS)) {
+            deleteFullText(ids);
+        }
+        final long[] rowIds = insertEmails(batch.emails);
+        for (int i = 0; i < rowIds.length; ++i) {
+            batch.fullText.get(i).rowId = rowIds[i];
+        }
+        insertFullText(batch.fullText);
+        insertInReplyTo(batch.inReplyTo);
+        insertMessageId(batch.messageIds);
+        insertEmailAddresses(batch.emailAddresses);
+        insertMailboxes(batch.mailboxes);
+        insertKeywords(batch.keywords);
+        insertEmailBodyParts(batch.bodyParts);
+        insertEmailBodyValues(batch.bodyValues);
+        batch.record(getMetrics());
+        return batch.size();
     }
 
     @Transaction
     public void updateEmails(final Update<Email> update, final String[] updatedProperties) {
+        withDeferredOverview(() -> {
+            applyEmailUpdate(update, updatedProperties);
+            return null;
+        });
+    }
+
+    private void applyEmailUpdate(final Update<Email> update, final String[] updatedProperties) {
         final String newState = update.getNewTypedState().getState();
         if (newState != null && newState.equals(getState(EntityType.EMAIL))) {
             LOGGER.debug("nothing to do. emails already at newest state");
@@ -286,12 +426,10 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
                 for (final String property : updatedProperties) {
                     switch (property) {
                         case "keywords":
-                            deleteKeywords(email.getId());
-                            insertKeywords(EmailKeywordEntity.of(email));
+                            updateKeywords(email);
                             break;
                         case "mailboxIds":
-                            deleteMailboxes(email.getId());
-                            insertMailboxes(EmailMailboxEntity.of(email));
+                            updateMailboxes(email);
                             break;
                         default:
                             throw new IllegalArgumentException("Unable to update property '" + property + "'");
@@ -306,6 +444,117 @@ public abstract class ThreadAndEmailDao extends AbstractEntityDao {
         throwOnUpdateConflict(EntityType.EMAIL, update.getOldTypedState(), update.getNewTypedState());
     }
 
+    /**
+     * Writes only the keywords that have actually been added or removed. Statements that would
+     * not change anything are skipped entirely so the InvalidationTracker is not triggered.
+     */
+    private void updateKeywords(final Email email) {
+        final Map<String, Boolean> keywords = email.getKeywords();
+        final Set<String> current = keywords == null ? Collections.emptySet() : keywords.keySet();
+        final Set<String> stored = ImmutableSet.copyOf(getKeywords(email.getId()));
+        final Set<String> removed = ImmutableSet.copyOf(Sets.difference(stored, current));
+        final Set<String> added = ImmutableSet.copyOf(Sets.difference(current, stored));
+        if (!removed.isEmpty()) {
+            deleteKeywords(email.getId(), removed);
+            getMetrics().recordDeleted("email_keyword", removed.size());
+        }
+        if (!added.isEmpty()) {
+            final List<EmailKeywordEntity> entities = new ArrayList<>(added.size());
+            for (final String keyword : added) {
+                entities.add(new EmailKeywordEntity(email.getId(), keyword));
+            }
+            insertKeywords(entities);
+            getMetrics().recordWritten("email_keyword", entities.size());
+        }
+    }
+
+    private void updateMailboxes(final Email email) {
+        final Set<String> current = email.getMailboxIds().keySet();
+        final Set<String> stored = ImmutableSet.copyOf(getMailboxIds(email.getId()));
+        final Set<String> removed = ImmutableSet.copyOf(Sets.difference(stored, current));
+        final Set<String> added = ImmutableSet.copyOf(Sets.difference(current, stored));
+        if (!removed.isEmpty()) {
+            deleteMailboxes(email.getId(), removed);
+            getMetrics().recordDeleted("email_mailbox", removed.size());
+        }
+        if (!added.isEmpty()) {
+            final List<EmailMailboxEntity> entities = new ArrayList<>(added.size());
+            for (final String mailboxId : added) {
+                entities.add(new EmailMailboxEntity(email.getId(), mailboxId));
+            }
+            insertMailboxes(entities);
+            getMetrics().recordWritten("email_mailbox", entities.size());
+        }
+    }
+
+    private static class EmailBatch {
+        private final List<EmailEntity> emails;
+        private final List<EmailInReplyToEntity> inReplyTo = new ArrayList<>();
+        private final List<EmailMessageIdEntity> messageIds = new ArrayList<>();
+        private final List<EmailEmailAddressEntity> emailAddresses = new ArrayList<>();
+        private final List<EmailMailboxEntity> mailboxes = new ArrayList<>();
+        private final List<EmailKeywordEntity> keywords = new ArrayList<>();
+        private final List<EmailBodyPartEntity> bodyParts = new ArrayList<>();
+        private final List<EmailBodyValueEntity> bodyValues = new ArrayList<>();
+        private final List<EmailFtsEntity> fullText;
+        private final List<String> ids;
+        private final BodyStore bodyStore;
+
+        private EmailBatch(final BodyStore bodyStore, final int expectedSize) {
+            this.bodyStore = bodyStore;
+            this.emails = new ArrayList<>(expectedSize);
+            this.fullText = new ArrayList<>(expectedSize);
+            this.ids = new ArrayList<>(expectedSize);
+        }
+
+        private void add(final Email email) {
+            final EmailEntity emailEntity = EmailEntity.of(email);
+            final List<EmailEmailAddressEntity> emailAddressEntities = EmailEmailAddressEntity.of(email);
+            final List<EmailBodyValueEntity> bodyValueEntities = EmailBodyValueEntity.of(email);
+            final List<EmailBodyPartEntity> bodyPartEntities = EmailBodyPartEntity.of(email);
+            emails.add(emailEntity);
+            ids.add(emailEntity.id);
+            inReplyTo.addAll(EmailInReplyToEntity.of(email));
+            messageIds.addAll(EmailMessageIdEntity.of(email));
+            emailAddresses.addAll(emailAddressEntities);
+            mailboxes.addAll(EmailMailboxEntity.of(email));
+            keywords.addAll(EmailKeywordEntity.of(email));
+            bodyParts.addAll(bodyPartEntities);
+            bodyValues.addAll(bodyValueEntities);
+            fullText.add(EmailFtsEntity.of(emailEntity, emailAddressEntities, bodyValueEntities));
+            //the quote structure of the displayed part is derived once here instead of on every render
+            BodyStructure.attach(bodyPartEntities, bodyValueEntities);
+            //the full text index is built from the inline values; only afterwards large ones are moved out
+            for (final EmailBodyValueEntity bodyValueEntity : bodyValueEntities) {
+                bodyValueEntity.store(bodyStore);
+            }
+        }
+
+        private void record(final CacheMetrics metrics) {
+            metrics.recordWritten("email", emails.size());
+            metrics.recordWritten("email_fts", fullText.size());
+            metrics.recordWritten("email_in_reply_to", inReplyTo.size());
+            metrics.recordWritten("email_message_id", messageIds.size());
+            metrics.recordWritten("email_email_address", emailAddresses.size());
+            metrics.recordWritten("email_mailbox", mailboxes.size());
+            metrics.recordWritten("email_keyword", keywords.size());
+            metrics.recordWritten("email_body_part", bodyParts.size());
+            metrics.recordWritten("email_body_value", bodyValues.size());
+        }
+
+        private int size() {
+            return emails.size()
+                    + fullText.size()
+                    + inReplyTo.size()
+                    + messageIds.size()
+                    + emailAddresses.size()
+                    + mailboxes.size()
+                    + keywords.size()
+                    + bodyParts.size()
+                    + bodyValues.size();
+        }
+    }
+
     private void deleteOverwrites(final String emailId) {
         deleteKeywordToggle(emailId);
         deleteMailboxOverwrite(emailId);
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.entity;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import rs.ltt.jmap.mua.util.EmailBodyUtil;
+
+/**
+ * Quote structure of the displayed text part of an email. It is derived with
+ * {@link EmailBodyUtil#parse(String)} once while the email is written to the database and stored
+ * in binary form next to the body value; rendering only cuts the blocks back out of the text.
+ * <p>
+ * Most blocks are stored as a range of lines of the original text plus the number of quote
+ * characters to strip from each line. Blocks that can not be expressed that way (for example
+ * because the parser rewrote the text) are stored inline.
+ */
+public class BodyStructure {
+
+    private static final byte VERSION = 1;
+
+    private static final byte KIND_LINES = 0;
+    private static final byte KIND_INLINE = 1;
+
+    //the parser may drop blank separator lines between blocks
+    private static final int MAX_SKIPPED_LINES = 4;
+
+    private final String partId;
+    private final int historyStart;
+    private final List<StoredBlock> blocks;
+
+    private BodyStructure(final String partId, final int historyStart, final List<StoredBlock> blocks) {
+        this.partId = partId;
+        this.historyStart = historyStart;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Derives the structure of the first text body part and stores it on the matching body value.
+     */
+    public static void attach(final List<EmailBodyPartEntity> bodyParts, final List<EmailBodyValueEntity> bodyValues) {
+        final EmailBodyPartEntity textBody = getTextBody(bodyParts);
+        if (textBody == null) {
+            return;
+        }
+        for (final EmailBodyValueEntity bodyValue : bodyValues) {
+            if (textBody.partId.equals(bodyValue.partId) && bodyValue.value != null) {
+                bodyValue.structure = encode(bodyValue.partId, bodyValue.value);
+                return;
+            }
+        }
+    }
+
+    static EmailBodyPartEntity getTextBody(final List<EmailBodyPartEntity> bodyParts) {
+        EmailBodyPartEntity first = null;
+        for (final EmailBodyPartEntity bodyPart : bodyParts) {
+            if (bodyPart.bodyPartType == EmailBodyPartType.TEXT_BODY && bodyPart.partId != null
+                    && (first == null || bodyPart.position < first.position)) {
+                first = bodyPart;
+            }
+        }
+        return first;
+    }
+
+    static byte[] encode(final String partId, final String text) {
+        final List<EmailBodyUtil.Block> parsed = EmailBodyUtil.parse(text);
+        final String[] lines = lines(text);
+        int historyStart = parsed.size();
+        while (historyStart > 0 && parsed.get(historyStart - 1).getDepth() > 0) {
+            --historyStart;
+        }
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try (final DataOutputStream out = new DataOutputStream(byteArrayOutputStream)) {
+            out.writeByte(VERSION);
+            out.writeUTF(partId);
+            writeVarInt(out, parsed.size());
+            writeVarInt(out, historyStart);
+            int cursor = 0;
+            for (final EmailBodyUtil.Block block : parsed) {
+                final String blockText = block.toString();
+                final String[] blockLines = blockText.split("\n", -1);
+                writeVarInt(out, block.getDepth());
+                final int start = findLines(lines, cursor, blockLines);
+                if (start < 0) {
+                    out.writeByte(KIND_INLINE);
+                    final byte[] bytes = blockText.getBytes(Charsets.UTF_8);
+                    writeVarInt(out, bytes.length);
+                    out.write(bytes);
+                } else {
+                    out.writeByte(KIND_LINES);
+                    writeVarInt(out, start);
+                    writeVarInt(out, blockLines.length);
+                    for (int i = 0; i < blockLines.length; ++i) {
+                        writeVarInt(out, lines[start + i].length() - blockLines[i].length());
+                    }
+                    cursor = start + blockLines.length;
+                }
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to encode body structure", e);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static int findLines(final String[] lines, final int cursor, final String[] blockLines) {
+        for (int start = cursor; start <= cursor + MAX_SKIPPED_LINES && start + blockLines.length <= lines.length; ++start) {
+            if (matches(lines, start, blockLines)) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(final String[] lines, final int start, final String[] blockLines) {
+        for (int i = 0; i < blockLines.length; ++i) {
+            if (!lines[start + i].endsWith(blockLines[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static BodyStructure decode(final byte[] structure) {
+        try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(structure))) {
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                return null;
+            }
+            final String partId = in.readUTF();
+            final int count = readVarInt(in);
+            final int historyStart = readVarInt(in);
+            final ImmutableList.Builder<StoredBlock> blocks = ImmutableList.builder();
+            for (int i = 0; i < count; ++i) {
+                final int depth = readVarInt(in);
+                final byte kind = in.readByte();
+                if (kind == KIND_INLINE) {
+                    final byte[] bytes = new byte[readVarInt(in)];
+                    in.readFully(bytes);
+                    blocks.add(new StoredBlock(depth, -1, null, new String(bytes, Charsets.UTF_8)));
+                } else {
+                    final int start = readVarInt(in);
+                    final int[] strip = new int[readVarInt(in)];
+                    for (int j = 0; j < strip.length; ++j) {
+                        strip[j] = readVarInt(in);
+                    }
+                    blocks.add(new StoredBlock(depth, start, strip, null));
+                }
+            }
+            return new BodyStructure(partId, historyStart, blocks.build());
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    public String getPartId() {
+        return partId;
+    }
+
+    /**
+     * @return index of the first block of the trailing quoted history; equal to the number of
+     * blocks if the text doesn’t end with a quote
+     */
+    public int getHistoryStart() {
+        return historyStart;
+    }
+
+    public List<Block> getBlocks(final String text) {
+        final String[] lines = lines(text);
+        final ImmutableList.Builder<Block> builder = ImmutableList.builder();
+        for (final StoredBlock block : blocks) {
+            builder.add(new Block(block.depth, block.toString(lines)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Parses texts that have been stored before the structure was derived at ingest time.
+     */
+    public static List<Block> parse(final String text) {
+        final ImmutableList.Builder<Block> builder = ImmutableList.builder();
+        for (final EmailBodyUtil.Block block : EmailBodyUtil.parse(text)) {
+            builder.add(new Block(block.getDepth(), block.toString()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Groups blocks into chunks of roughly maxLength characters so that very large bodies can be
+     * laid out piece by piece. Chunks end at block boundaries; blocks that are longer than the
+     * remaining room are cut at the last line break that still fits. Chunks only hold offsets
+     * into the given blocks.
+     */
+    public static List<Chunk> split(final List<Block> blocks, final int maxLength) {
+        final ImmutableList.Builder<Chunk> chunks = ImmutableList.builder();
+        int firstBlock = 0;
+        int firstStart = 0;
+        int length = 0;
+        boolean empty = true;
+        for (int i = 0; i < blocks.size(); ++i) {
+            final String text = blocks.get(i).text;
+            int start = 0;
+            while (length + text.length() - start > maxLength) {
+                int end = text.lastIndexOf('\n', start + maxLength - length);
+                if (end <= start) {
+                    if (!empty) {
+                        chunks.add(new Chunk(firstBlock, firstStart, i - 1, blocks.get(i - 1).text.length()));
+                        firstBlock = i;
+                        firstStart = start;
+                        length = 0;
+                        empty = true;
+                        continue;
+                    }
+                    //a single line longer than maxLength can not be cut
+                    end = text.indexOf('\n', start + maxLength);
+                    if (end < 0) {
+                        break;
+                    }
+                }
+                chunks.add(new Chunk(firstBlock, firstStart, i, end));
+                firstBlock = i;
+                firstStart = end + 1;
+                length = 0;
+                empty = true;
+                start = end + 1;
+            }
+            length += text.length() - start + 1;
+            empty = false;
+        }
+        if (!empty) {
+            final int last = blocks.size() - 1;
+            chunks.add(new Chunk(firstBlock, firstStart, last, blocks.get(last).text.length()));
+        }
+        return chunks.build();
+    }
+
+    private static String[] lines(final String text) {
+        final String[] lines = text.split("\n", -1);
+        for (int i = 0; i < lines.length; ++i) {
+            final String line = lines[i];
+            if (line.endsWith("\r")) {
+                lines[i] = line.substring(0, line.length() - 1);
+            }
+        }
+        return lines;
+    }
+
+    private static void writeVarInt(final DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(final DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = in.readByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static class StoredBlock {
+        private final int depth;
+        private final int start;
+        private final int[] strip;
+        private final String text;
+
+        private StoredBlock(final int depth, final int start, final int[] strip, final String text) {
+            this.depth = depth;
+            this.start = start;
+            this.strip = strip;
+            this.text = text;
+        }
+
+        private String toString(final String[] lines) {
+            if (text != null) {
+                return text;
+            }
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < strip.length; ++i) {
+                if (i != 0) {
+                    builder.append('\n');
+                }
+                builder.append(lines[start + i], strip[i], lines[start + i].length());
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * A range of blocks, starting at {@code start} within the first block and ending (exclusive)
+     * at {@code end} within the last block.
+     */
+    public static class Chunk {
+        private final int firstBlock;
+        private final int start;
+        private final int lastBlock;
+        private final int end;
+
+        private Chunk(final int firstBlock, final int start, final int lastBlock, final int end) {
+            this.firstBlock = firstBlock;
+            this.start = start;
+            this.lastBlock = lastBlock;
+            this.end = end;
+        }
+
+        /**
+         * @param blocks the blocks this chunk has been split from
+         */
+        public List<Block> getBlocks(final List<Block> blocks) {
+            final ImmutableList.Builder<Block> builder = ImmutableList.builder();
+            for (int i = firstBlock; i <= lastBlock; ++i) {
+                final Block block = blocks.get(i);
+                final int from = i == firstBlock ? start : 0;
+                final int to = i == lastBlock ? end : block.text.length();
+                builder.add(from == 0 && to == block.text.length() ? block : new Block(block.depth, block.text.substring(from, to)));
+            }
+            return builder.build();
+        }
+    }
+
+    public static class Block {
+        private final int depth;
+        private final String text;
+
+        private Block(final int depth, final String text) {
+            this.depth = depth;
+            this.text = text;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
@@ -15,6 +15,7 @@
 
 package rs.ltt.android.entity;
 
+import androidx.room.Ignore;
 import androidx.room.Relation;
 
 import com.google.common.collect.Collections2;
@@ -27,6 +28,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import rs.ltt.android.database.BodyStore;
 import rs.ltt.jmap.common.entity.IdentifiableEmailWithAddresses;
 import rs.ltt.jmap.common.entity.IdentifiableEmailWithSubject;
 
@@ -40,6 +42,12 @@ public class EditableEmail implements IdentifiableEmailWithAddresses, Identifiab
 
     public String subject;
 
+    @Ignore
+    private BodyStore bodyStore;
+
+    @Ignore
+    private String text;
+
     @Relation(entity = EmailEmailAddressEntity.class, parentColumn = "id", entityColumn = "emailId", projection = {"email", "name", "type"})
     public List<EmailAddress> emailAddresses;
 
@@ -59,7 +67,21 @@ public class EditableEmail implements IdentifiableEmailWithAddresses, Identifiab
     public List<String> emailsInThread;
 
 
+    public void setBodyStore(final BodyStore bodyStore) {
+        this.bodyStore = bodyStore;
+    }
+
+    /**
+     * Large bodies are only read from the {@link BodyStore} on the first call.
+     */
     public String getText() {
+        if (text == null) {
+            text = readText();
+        }
+        return text;
+    }
+
+    private String readText() {
         final ArrayList<EmailBodyPartEntity> textBody = new ArrayList<>();
         for (EmailBodyPartEntity entity : bodyPartEntities) {
             if (entity.bodyPartType == EmailBodyPartType.TEXT_BODY) {
@@ -70,7 +92,7 @@ public class EditableEmail implements IdentifiableEmailWithAddresses, Identifiab
         EmailBodyPartEntity first = Iterables.getFirst(textBody, null);
         Map<String, EmailBodyValueEntity> map = Maps.uniqueIndex(bodyValueEntities, value -> value.partId);
         EmailBodyValueEntity value = map.get(first.partId);
-        return value.value;
+        return value.getValue(bodyStore);
     }
 
     public boolean isOnlyEmailInThread() {
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rs.ltt.android.entity;
+
+import androidx.room.Ignore;
+import androidx.room.Relation;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import rs.ltt.android.database.BodyStore;
+
+/**
+ * Body parts and values of a single email. Loaded separately from {@link FullEmail} so that
+ * opening a thread only reads the bodies of the emails that are actually expanded.
+ */
+public class EmailBody {
+
+    public String id;
+
+    @Ignore
+    private BodyStore bodyStore;
+
+    @Ignore
+    private String text;
+
+    @Ignore
+    private BodyStructure structure;
+
+    @Ignore
+    private List<BodyStructure.Block> blocks;
+
+    @Ignore
+    private List<BodyStructure.Chunk> chunks;
+
+    @Ignore
+    private int chunkLength;
+
+    @Relation(parentColumn = "id", entityColumn = "emailId")
+    public List<EmailBodyPartEntity> bodyPartEntities;
+
+    @Relation(parentColumn = "id", entityColumn = "emailId")
+    public List<EmailBodyValueEntity> bodyValueEntities;
+
+    public void setBodyStore(final BodyStore bodyStore) {
+        this.bodyStore = bodyStore;
+    }
+
+    /**
+     * @return true if a value has been moved to the {@link BodyStore} because it exceeded
+     * {@link BodyStore#THRESHOLD}
+     */
+    public boolean isStored() {
+        for (final EmailBodyValueEntity value : bodyValueEntities) {
+            if (value.reference != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Large bodies are only read from the {@link BodyStore} on the first call.
+     */
+    public String getText() {
+        if (text == null) {
+            text = readText();
+        }
+        return text;
+    }
+
+    /**
+     * @return the quote blocks of the text. Emails written with a derived {@link BodyStructure}
+     * are not parsed again. The blocks are kept; the text itself is not retained by this call.
+     */
+    public synchronized List<BodyStructure.Block> getBlocks() {
+        if (blocks == null) {
+            final String text = this.text == null ? readText() : this.text;
+            if (text == null) {
+                blocks = Collections.emptyList();
+            } else {
+                final BodyStructure structure = getStructure();
+                blocks = structure == null ? BodyStructure.parse(text) : structure.getBlocks(text);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * @return the blocks split into chunks of roughly maxLength characters. The split is done once
+     * and kept with the body.
+     */
+    public synchronized List<BodyStructure.Chunk> getChunks(final int maxLength) {
+        if (chunks == null || chunkLength != maxLength) {
+            chunks = BodyStructure.split(getBlocks(), maxLength);
+            chunkLength = maxLength;
+        }
+        return chunks;
+    }
+
+    public synchronized boolean isSplit(final int maxLength) {
+        return chunks != null && chunkLength == maxLength;
+    }
+
+    private BodyStructure getStructure() {
+        if (structure == null) {
+            for (final EmailBodyValueEntity value : bodyValueEntities) {
+                if (value.structure != null) {
+                    structure = BodyStructure.decode(value.structure);
+                    break;
+                }
+            }
+        }
+        return structure;
+    }
+
+    private String readText() {
+        final BodyStructure structure = getStructure();
+        if (structure != null) {
+            for (final EmailBodyValueEntity value : bodyValueEntities) {
+                if (structure.getPartId().equals(value.partId)) {
+                    return value.getValue(bodyStore);
+                }
+            }
+        }
+        final ArrayList<EmailBodyPartEntity> textBody = new ArrayList<>();
+        for (EmailBodyPartEntity entity : bodyPartEntities) {
+            if (entity.bodyPartType == EmailBodyPartType.TEXT_BODY) {
+                textBody.add(entity);
+            }
+        }
+        Collections.sort(textBody, (o1, o2) -> o1.position.compareTo(o2.position));
+        EmailBodyPartEntity first = Iterables.getFirst(textBody, null);
+        Map<String, EmailBodyValueEntity> map = Maps.uniqueIndex(bodyValueEntities, value -> value.partId);
+        EmailBodyValueEntity value = map.get(first.partId);
+        return value.getValue(bodyStore);
+    }
+}
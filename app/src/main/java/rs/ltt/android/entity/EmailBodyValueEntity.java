@@ -24,6 +24,7 @@ import com.google.common.collect.ImmutableList;
 import java.util.List;
 import java.util.Map;
 
+import rs.ltt.android.database.BodyStore;
 import rs.ltt.jmap.common.entity.Email;
 import rs.ltt.jmap.common.entity.EmailBodyValue;
 
@@ -46,6 +47,31 @@ public class EmailBodyValueEntity {
     public Boolean isEncodingProblem;
     public Boolean isTruncated;
 
+    //name of the file in the BodyStore when the value was too large to be kept inline
+    public String reference;
+
+    //encoded BodyStructure; only set on the value of the displayed text part
+    public byte[] structure;
+
+    public String getValue(final BodyStore bodyStore) {
+        if (reference == null) {
+            return value;
+        }
+        return bodyStore.read(reference);
+    }
+
+    /**
+     * Moves the value into the BodyStore if it exceeds the threshold.
+     */
+    public void store(final BodyStore bodyStore) {
+        if (BodyStore.shouldStore(value)) {
+            final String reference = BodyStore.reference(emailId, partId);
+            bodyStore.write(reference, value);
+            this.reference = reference;
+            this.value = null;
+        }
+    }
+
     public static List<EmailBodyValueEntity> of(Email email) {
         ImmutableList.Builder<EmailBodyValueEntity> builder = new ImmutableList.Builder<>();
         for (Map.Entry<String, EmailBodyValue> bodyValue : email.getBodyValues().entrySet()) {
@@ -17,6 +17,7 @@ package rs.ltt.android.entity;
 
 import androidx.annotation.NonNull;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 import java.time.Instant;
@@ -24,7 +25,9 @@ import java.time.OffsetDateTime;
 
 import rs.ltt.jmap.common.entity.Email;
 
-@Entity(tableName = "email")
+@Entity(tableName = "email",
+        indices = {@Index(value = "threadId")}
+)
 public class EmailEntity {
 
 
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.entity;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+import androidx.room.PrimaryKey;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import rs.ltt.android.database.BodyStore;
+
+/**
+ * Offline full text index over subject, preview, addresses and body values of an email. The rowid
+ * of an entry is the rowid the email got in the email table so that the entry can be removed with
+ * the email without scanning the index.
+ * <p>
+ * FTS4 keeps a copy of every indexed column. Body values that are large enough to go into the
+ * {@link BodyStore} are therefore only indexed by their distinct words. Match expressions only
+ * consist of prefix terms (see {@link #toMatchQuery(String)}), so that finds the same emails.
+ */
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61, notIndexed = {"emailId"})
+@Entity(tableName = "email_fts")
+public class EmailFtsEntity {
+
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    public Long rowId;
+
+    public String emailId;
+    public String subject;
+    public String preview;
+    public String addresses;
+    public String body;
+
+    public static EmailFtsEntity of(final EmailEntity email,
+                                    final List<EmailEmailAddressEntity> emailAddresses,
+                                    final List<EmailBodyValueEntity> bodyValues) {
+        final EmailFtsEntity entity = new EmailFtsEntity();
+        entity.emailId = email.id;
+        entity.subject = email.subject;
+        entity.preview = email.preview;
+        final List<String> addresses = new ArrayList<>(emailAddresses.size() * 2);
+        for (final EmailEmailAddressEntity address : emailAddresses) {
+            if (!Strings.isNullOrEmpty(address.name)) {
+                addresses.add(address.name);
+            }
+            if (!Strings.isNullOrEmpty(address.email)) {
+                addresses.add(address.email);
+            }
+        }
+        entity.addresses = Joiner.on(' ').join(addresses);
+        final List<String> values = new ArrayList<>(bodyValues.size());
+        for (final EmailBodyValueEntity bodyValue : bodyValues) {
+            if (BodyStore.shouldStore(bodyValue.value)) {
+                values.add(toWords(bodyValue.value));
+            } else if (bodyValue.value != null) {
+                values.add(bodyValue.value);
+            }
+        }
+        entity.body = Joiner.on('\n').join(values);
+        return entity;
+    }
+
+    /**
+     * @return the distinct words of the text in order of their first occurrence
+     */
+    public static String toWords(final String text) {
+        final Set<String> words = new LinkedHashSet<>();
+        int start = -1;
+        int i = 0;
+        while (i <= text.length()) {
+            final int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            if (isTokenCharacter(codePoint)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return Joiner.on(' ').join(words);
+    }
+
+    //matches the characters the unicode61 tokenizer keeps within a token
+    private static boolean isTokenCharacter(final int codePoint) {
+        if (Character.isLetterOrDigit(codePoint)) {
+            return true;
+        }
+        switch (Character.getType(codePoint)) {
+            case Character.NON_SPACING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.LETTER_NUMBER:
+            case Character.OTHER_NUMBER:
+            case Character.PRIVATE_USE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Turns free text as typed by the user into an FTS match expression that requires every word
+     * to appear as a prefix of a token. Operators and quotes are stripped so that user input can
+     * never produce a malformed expression.
+     *
+     * @return the match expression or null if the term does not contain any searchable characters
+     */
+    public static String toMatchQuery(final String term) {
+        if (term == null) {
+            return null;
+        }
+        final List<String> words = new ArrayList<>();
+        final StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= term.length(); ++i) {
+            final char c = i < term.length() ? term.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                words.add(word.append('*').toString());
+                word.setLength(0);
+            }
+        }
+        return words.isEmpty() ? null : Joiner.on(' ').join(words);
+    }
+}
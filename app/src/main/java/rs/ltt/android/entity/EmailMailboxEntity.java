@@ -18,6 +18,7 @@ package rs.ltt.android.entity;
 import androidx.annotation.NonNull;
 import androidx.room.Entity;
 import androidx.room.ForeignKey;
+import androidx.room.Index;
 
 import com.google.common.collect.ImmutableList;
 
@@ -31,7 +32,8 @@ import rs.ltt.jmap.common.entity.Email;
                 parentColumns = {"id"},
                 childColumns = {"emailId"},
                 onDelete = ForeignKey.CASCADE
-        )
+        ),
+        indices = {@Index(value = "mailboxId")}
 )
 public class EmailMailboxEntity {
 
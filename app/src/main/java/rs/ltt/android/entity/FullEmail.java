@@ -15,18 +15,15 @@
 
 package rs.ltt.android.entity;
 
+import androidx.room.Ignore;
 import androidx.room.Relation;
 
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import rs.ltt.jmap.common.entity.Keyword;
@@ -38,18 +35,18 @@ public class FullEmail {
     public String threadId;
     public Instant receivedAt;
 
+    @Ignore
+    private long accountId;
+
+    @Ignore
+    private BodyLoader bodyLoader;
+
     @Relation(entity = EmailKeywordEntity.class, parentColumn = "id", entityColumn = "emailId", projection = {"keyword"})
     public Set<String> keywords;
 
     @Relation(entity = EmailEmailAddressEntity.class, parentColumn = "id", entityColumn = "emailId", projection = {"email", "name", "type"})
     public List<EmailAddress> emailAddresses;
 
-    @Relation(parentColumn = "id", entityColumn = "emailId")
-    public List<EmailBodyPartEntity> bodyPartEntities;
-
-    @Relation(parentColumn = "id", entityColumn = "emailId")
-    public List<EmailBodyValueEntity> bodyValueEntities;
-
     public boolean isDraft() {
         return keywords.contains(Keyword.DRAFT);
     }
@@ -71,18 +68,20 @@ public class FullEmail {
         return null;
     }
 
-    public String getText() {
-        final ArrayList<EmailBodyPartEntity> textBody = new ArrayList<>();
-        for (EmailBodyPartEntity entity : bodyPartEntities) {
-            if (entity.bodyPartType == EmailBodyPartType.TEXT_BODY) {
-                textBody.add(entity);
-            }
-        }
-        Collections.sort(textBody, (o1, o2) -> o1.position.compareTo(o2.position));
-        EmailBodyPartEntity first = Iterables.getFirst(textBody, null);
-        Map<String, EmailBodyValueEntity> map = Maps.uniqueIndex(bodyValueEntities, value -> value.partId);
-        EmailBodyValueEntity value = map.get(first.partId);
-        return value.value;
+    public void setBodyLoader(final long accountId, final BodyLoader bodyLoader) {
+        this.accountId = accountId;
+        this.bodyLoader = bodyLoader;
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * Bodies are not part of the email itself; they are fetched on first use.
+     */
+    public ListenableFuture<EmailBody> getBody() {
+        return bodyLoader.load(id);
     }
 
     public Collection<String> getTo() {
@@ -96,6 +95,10 @@ public class FullEmail {
     }
 
 
+    public interface BodyLoader {
+        ListenableFuture<EmailBody> load(String emailId);
+    }
+
     public interface From {
 
     }
@@ -33,7 +33,7 @@ import rs.ltt.jmap.mua.util.QueryResultItem;
                 childColumns = {"queryId"},
                 onDelete = ForeignKey.CASCADE
         )},
-        indices = {@Index(value = "queryId")}
+        indices = {@Index(value = {"queryId", "position"})}
 )
 public class QueryItemEntity {
 
@@ -56,11 +56,17 @@ public class QueryItemEntity {
     }
 
 
-    public static List<QueryItemEntity> of(final Long queryId, final QueryResultItem[] items, final long offset) {
+    /**
+     * Positions are sparse sort keys rather than indices. Consecutive items are spaced by this gap
+     * so that an item can later be inserted between two neighbours without touching any other row.
+     */
+    public static final long POSITION_GAP = 1 << 16;
+
+    public static List<QueryItemEntity> of(final Long queryId, final QueryResultItem[] items, final long firstPosition) {
         ImmutableList.Builder<QueryItemEntity> builder = new ImmutableList.Builder<>();
         for (int i = 0; i < items.length; ++i) {
             QueryResultItem item = items[i];
-            builder.add(of(queryId, i + offset, item));
+            builder.add(of(queryId, firstPosition + i * POSITION_GAP, item));
         }
         return builder.build();
     }
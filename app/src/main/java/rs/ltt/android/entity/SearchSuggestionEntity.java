@@ -15,10 +15,14 @@
 
 package rs.ltt.android.entity;
 
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
+import java.time.Instant;
+
 @Entity(tableName = "search_suggestion", indices = {@Index(value = {"query"}, unique = true)})
 public class SearchSuggestionEntity {
 
@@ -27,9 +31,27 @@ public class SearchSuggestionEntity {
 
     public String query;
 
-    public static SearchSuggestionEntity of(String query) {
+    @ColumnInfo(defaultValue = "1")
+    public int useCount;
+
+    @NonNull
+    @ColumnInfo(defaultValue = "0")
+    public Instant lastUsedAt = Instant.EPOCH;
+
+    public static SearchSuggestionEntity of(String query, Instant lastUsedAt) {
         SearchSuggestionEntity entity = new SearchSuggestionEntity();
         entity.query = query;
+        entity.useCount = 1;
+        entity.lastUsedAt = lastUsedAt;
+        return entity;
+    }
+
+    public SearchSuggestionEntity used(Instant lastUsedAt) {
+        SearchSuggestionEntity entity = new SearchSuggestionEntity();
+        entity.id = this.id;
+        entity.query = this.query;
+        entity.useCount = this.useCount + 1;
+        entity.lastUsedAt = lastUsedAt;
         return entity;
     }
 
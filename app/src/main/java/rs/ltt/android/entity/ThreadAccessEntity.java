@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import java.time.Instant;
+
+/**
+ * Last time the user opened a thread. Used to pick the least recently used threads when the
+ * cache exceeds its storage budget. Deliberately not a foreign key of thread; threads are
+ * re-inserted with REPLACE during sync and that would drop the access time.
+ */
+@Entity(tableName = "thread_access")
+public class ThreadAccessEntity {
+
+    @PrimaryKey
+    @NonNull
+    public String threadId;
+
+    public Instant lastAccessedAt;
+
+    public ThreadAccessEntity(@NonNull String threadId, Instant lastAccessedAt) {
+        this.threadId = threadId;
+        this.lastAccessedAt = lastAccessedAt;
+    }
+}
@@ -18,6 +18,7 @@ package rs.ltt.android.entity;
 import androidx.annotation.NonNull;
 import androidx.room.Entity;
 import androidx.room.ForeignKey;
+import androidx.room.Index;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -32,7 +33,8 @@ import static androidx.room.ForeignKey.CASCADE;
                 parentColumns = {"threadId"},
                 childColumns = {"threadId"},
                 onDelete = CASCADE
-        )
+        ),
+        indices = {@Index(value = {"threadId", "position"})}
 )
 public class ThreadItemEntity {
     @NonNull
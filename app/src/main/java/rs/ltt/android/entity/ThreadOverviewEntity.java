@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Denormalized per thread summary that backs the thread list. The table is never written from
+ * Java; SQL triggers (see {@link rs.ltt.android.database.ThreadOverviewTriggers}) keep it in sync
+ * with email, email_keyword, email_mailbox, email_email_address and thread_item.
+ */
+@Entity(tableName = "thread_overview")
+public class ThreadOverviewEntity {
+
+    @NonNull
+    @PrimaryKey
+    public String threadId;
+
+    public String subject;
+
+    public String preview;
+
+    public Long receivedAt;
+
+    public int emailCount;
+
+    public boolean seen;
+
+    public boolean flagged;
+
+    public String mailboxIds;
+
+    public String senders;
+
+    public ThreadOverviewEntity(@NonNull String threadId) {
+        this.threadId = threadId;
+    }
+}
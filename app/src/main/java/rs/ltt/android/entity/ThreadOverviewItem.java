@@ -16,176 +16,246 @@
 package rs.ltt.android.entity;
 
 import androidx.room.Ignore;
-import androidx.room.Relation;
 
 import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicReference;
 
-import rs.ltt.jmap.common.entity.IdentifiableEmailWithKeywords;
-import rs.ltt.jmap.common.entity.IdentifiableEmailWithMailboxIds;
+import rs.ltt.android.database.OptimisticOverlay;
+import rs.ltt.android.database.ThreadOverviewTriggers;
 import rs.ltt.jmap.common.entity.Keyword;
-import rs.ltt.jmap.mua.util.KeywordUtil;
-
+import rs.ltt.jmap.common.entity.Role;
+
+/**
+ * One row of the thread list. The fields are read from the trigger maintained thread_overview
+ * table; pending keyword and mailbox changes are applied from the {@link OptimisticOverlay} each
+ * time the row is rendered. Everything else the row displays is derived once by
+ * {@link #prepare(OptimisticOverlay)} on the paging executor so that binding and diffing only
+ * read fields.
+ */
 public class ThreadOverviewItem {
 
+    private static final Splitter RECORD_SPLITTER = Splitter.on(ThreadOverviewTriggers.RECORD_SEPARATOR);
+    private static final Splitter UNIT_SPLITTER = Splitter.on(ThreadOverviewTriggers.UNIT_SEPARATOR);
+    private static final Splitter MAILBOX_SPLITTER = Splitter.on(ThreadOverviewTriggers.MAILBOX_SEPARATOR).omitEmptyStrings();
+
+    @Ignore
+    private Map<String, From> fromMap = ImmutableMap.of();
+    @Ignore
+    private Set<String> mailboxIdSet = ImmutableSet.of();
+    @Ignore
+    private String displaySubject;
+    @Ignore
+    private String displayPreview;
+    @Ignore
+    private Instant receivedAtInstant;
     @Ignore
-    private final AtomicReference<Map<String, From>> fromMap = new AtomicReference<>();
+    private long fingerprint;
     @Ignore
-    private final AtomicReference<List<Email>> orderedEmails = new AtomicReference<>();
+    private long layoutFingerprint;
+    @Ignore
+    private long seenFingerprint;
+    @Ignore
+    private OptimisticOverlay overlay;
 
     public String emailId;
     public String threadId;
 
-    @Relation(parentColumn = "threadId", entityColumn = "threadId", entity = EmailEntity.class)
-    public List<Email> emails;
+    public String subject;
+    public String preview;
+    public Long receivedAt;
+    public int emailCount;
+    public boolean seen;
+    public boolean flagged;
+    public String mailboxIds;
+    public String senders;
+
+    public void prepare(final OptimisticOverlay overlay) {
+        this.overlay = overlay;
+        this.fromMap = calculateFromMap();
+        this.mailboxIdSet = mailboxIds == null ? ImmutableSet.of() : ImmutableSet.copyOf(MAILBOX_SPLITTER.split(mailboxIds));
+        this.displaySubject = subject == null ? "(no subject)" : subject.trim();
+        this.displayPreview = preview == null ? "(no preview)" : preview.trim();
+        this.receivedAtInstant = receivedAt == null ? null : Instant.ofEpochMilli(receivedAt);
+        calculateFingerprints();
+    }
+
+    /**
+     * Everything the row renders from the database is hashed into {@link #fingerprint}. The seen
+     * state (including the seen state of each sender), the flag and the mailboxes are additionally
+     * kept apart so that a change to only those can be applied without rebinding the whole row.
+     */
+    private void calculateFingerprints() {
+        final Hasher layout = Hashing.murmur3_128().newHasher();
+        putNullable(layout, displaySubject);
+        putNullable(layout, displayPreview);
+        layout.putLong(receivedAt == null ? Long.MIN_VALUE : receivedAt);
+        layout.putInt(emailCount);
+        final Hasher seenState = Hashing.murmur3_128().newHasher();
+        seenState.putBoolean(seen);
+        for (final Map.Entry<String, From> entry : fromMap.entrySet()) {
+            layout.putUnencodedChars(entry.getKey());
+            final From from = entry.getValue();
+            if (from instanceof NamedFrom) {
+                putNullable(layout, ((NamedFrom) from).name);
+                seenState.putBoolean(((NamedFrom) from).seen);
+            } else {
+                layout.putByte((byte) 0);
+            }
+        }
+        this.layoutFingerprint = layout.hash().asLong();
+        this.seenFingerprint = seenState.hash().asLong();
+        final Hasher all = Hashing.murmur3_128().newHasher()
+                .putLong(layoutFingerprint)
+                .putLong(seenFingerprint)
+                .putBoolean(flagged);
+        putNullable(all, mailboxIds);
+        this.fingerprint = all.hash().asLong();
+    }
+
+    private static void putNullable(final Hasher hasher, final String value) {
+        if (value == null) {
+            hasher.putBoolean(false);
+        } else {
+            hasher.putBoolean(true).putInt(value.length()).putUnencodedChars(value);
+        }
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
 
-    @Relation(parentColumn = "threadId", entityColumn = "threadId")
-    public List<ThreadItemEntity> threadItemEntities;
+    /**
+     * @return the parts of the row that differ from the other version of the same thread or null
+     * if the row has to be rebound completely
+     */
+    public EnumSet<Change> getChanges(final ThreadOverviewItem other) {
+        if (layoutFingerprint != other.layoutFingerprint) {
+            return null;
+        }
+        final EnumSet<Change> changes = EnumSet.noneOf(Change.class);
+        if (seenFingerprint != other.seenFingerprint) {
+            changes.add(Change.SEEN);
+        }
+        if (flagged != other.flagged) {
+            changes.add(Change.FLAGGED);
+        }
+        if (!Objects.equal(mailboxIds, other.mailboxIds)) {
+            changes.add(Change.MAILBOXES);
+        }
+        return changes.isEmpty() ? null : changes;
+    }
 
-    @Relation(parentColumn = "threadId", entityColumn = "threadId")
-    public Set<KeywordOverwriteEntity> keywordOverwriteEntities;
+    private Boolean getKeywordOverwrite(final String keyword) {
+        return overlay == null ? null : overlay.getKeyword(threadId, keyword);
+    }
 
-    @Relation(parentColumn = "threadId", entityColumn = "threadId")
-    public Set<MailboxOverwriteEntity> mailboxOverwriteEntities;
+    private Boolean getMailboxOverwrite(final Role role) {
+        return overlay == null ? null : overlay.getMailbox(threadId, role);
+    }
 
+    public boolean hasMailboxOverwrite(final Role role) {
+        return Boolean.TRUE.equals(getMailboxOverwrite(role));
+    }
 
     public String getPreview() {
-        final Email email = Iterables.getLast(getOrderedEmails(), null);
-        return email == null ? "(no preview)" : Strings.nullToEmpty(email.preview).trim();
+        return displayPreview;
     }
 
     public String getSubject() {
-        final Email email = Iterables.getFirst(getOrderedEmails(), null);
-        return email == null ? "(no subject)" : Strings.nullToEmpty(email.subject).trim();
+        return displaySubject;
     }
 
     public Instant getReceivedAt() {
-        final Email email = Iterables.tryFind(emails, e -> e != null && emailId.equals(e.id)).orNull();
-        return email == null ? null : email.receivedAt;
+        return receivedAtInstant;
     }
 
     public boolean everyHasSeenKeyword() {
-        KeywordOverwriteEntity seenOverwrite = KeywordOverwriteEntity.getKeywordOverwrite(keywordOverwriteEntities, Keyword.SEEN);
-        return seenOverwrite != null ? seenOverwrite.value : KeywordUtil.everyHas(getOrderedEmails(), Keyword.SEEN);
+        final Boolean seenOverwrite = getKeywordOverwrite(Keyword.SEEN);
+        return seenOverwrite != null ? seenOverwrite : seen;
     }
 
     public boolean showAsFlagged() {
-        KeywordOverwriteEntity flaggedOverwrite = KeywordOverwriteEntity.getKeywordOverwrite(keywordOverwriteEntities, Keyword.FLAGGED);
-        return flaggedOverwrite != null ? flaggedOverwrite.value : KeywordUtil.anyHas(getOrderedEmails(), Keyword.FLAGGED);
+        final Boolean flaggedOverwrite = getKeywordOverwrite(Keyword.FLAGGED);
+        return flaggedOverwrite != null ? flaggedOverwrite : flagged;
     }
 
 
     public Integer getCount() {
-        final int count = threadItemEntities.size();
-        return count <= 1 ? null : count;
+        return emailCount <= 1 ? null : emailCount;
     }
 
     public Map.Entry<String, From> getFrom() {
-        return Iterables.getFirst(getFromMap().entrySet(), null);
+        final Map.Entry<String, From> from = Iterables.getFirst(fromMap.entrySet(), null);
+        if (from == null) {
+            return null;
+        }
+        return Maps.immutableEntry(from.getKey(), applySeenOverwrite(from.getValue()));
     }
 
-    private Map<String, From> getFromMap() {
-        Map<String, From> map = this.fromMap.get();
-        if (map == null) {
-            synchronized (this.fromMap) {
-                map = this.fromMap.get();
-                if (map == null) {
-                    map = calculateFromMap();
-                    this.fromMap.set(map);
-                }
-            }
+    //the map is prepared with the seen state from the database; the overlay may change at any time
+    private From applySeenOverwrite(final From from) {
+        final Boolean seenOverwrite = getKeywordOverwrite(Keyword.SEEN);
+        if (seenOverwrite != null && from instanceof NamedFrom) {
+            return new NamedFrom(((NamedFrom) from).name, seenOverwrite);
         }
-        return map;
+        return from;
     }
 
     private Map<String, From> calculateFromMap() {
-        KeywordOverwriteEntity seenOverwrite = KeywordOverwriteEntity.getKeywordOverwrite(keywordOverwriteEntities, Keyword.SEEN);
-        LinkedHashMap<String, From> fromMap = new LinkedHashMap<>();
-        final List<Email> emails = getOrderedEmails();
-        for (Email email : emails) {
-            if (email.keywords.contains(Keyword.DRAFT)) {
-                fromMap.put("", new DraftFrom());
-                continue;
-            }
-            final boolean seen = seenOverwrite != null ? seenOverwrite.value : email.keywords.contains(Keyword.SEEN);
-            for (EmailAddress emailAddress : email.emailAddresses) {
-                if (emailAddress.type == EmailAddressType.FROM) {
-                    From from = fromMap.get(emailAddress.getEmail());
-                    if (from == null) {
-                        from = new NamedFrom(emailAddress.getName(), seen);
-                        fromMap.put(emailAddress.getEmail(), from);
-                    } else if (from instanceof NamedFrom) {
-                        final NamedFrom namedFrom = (NamedFrom) from;
-                        namedFrom.seen &= seen;
-                    }
-                }
-            }
+        if (Strings.isNullOrEmpty(senders)) {
+            return ImmutableMap.of();
         }
-        return fromMap;
-    }
-
-    private List<Email> getOrderedEmails() {
-        List<Email> list = this.orderedEmails.get();
-        if (list == null) {
-            synchronized (this.orderedEmails) {
-                list = this.orderedEmails.get();
-                if (list == null) {
-                    list = calculateOrderedEmails();
-                    this.orderedEmails.set(list);
-                }
+        final LinkedHashMap<String, From> fromMap = new LinkedHashMap<>();
+        for (final String record : RECORD_SPLITTER.split(senders)) {
+            final List<String> units = UNIT_SPLITTER.splitToList(record);
+            if (units.size() != 3) {
+                continue;
             }
-        }
-        return list;
-    }
-
-    private List<Email> calculateOrderedEmails() {
-        final List<ThreadItemEntity> threadItemEntities = new ArrayList<>(this.threadItemEntities);
-        Collections.sort(threadItemEntities, (o1, o2) -> o1.getPosition() - o2.getPosition());
-        final Map<String, Email> emailMap = Maps.uniqueIndex(emails, input -> input.id);
-        final List<Email> orderedList = new ArrayList<>(emails.size());
-        for (ThreadItemEntity threadItemEntity : threadItemEntities) {
-            Email email = emailMap.get(threadItemEntity.emailId);
-            if (email != null) {
-                orderedList.add(email);
+            final String email = units.get(0);
+            if (email.isEmpty()) {
+                fromMap.put(email, new DraftFrom());
+            } else {
+                fromMap.put(email, new NamedFrom(units.get(1), "1".equals(units.get(2))));
             }
         }
-        return orderedList;
+        return ImmutableMap.copyOf(fromMap);
     }
 
-    private Set<String> getMailboxIds() {
-        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
-        for (Email email : emails) {
-            builder.addAll(email.mailboxes);
-        }
-        return builder.build();
+    public Set<String> getMailboxIds() {
+        return mailboxIdSet;
     }
 
     public boolean isInMailbox(MailboxWithRoleAndName mailbox) {
         if (mailbox == null) {
             return false;
         }
-        MailboxOverwriteEntity overwrite = MailboxOverwriteEntity.find(this.mailboxOverwriteEntities, mailbox.role);
+        final Boolean overwrite = getMailboxOverwrite(mailbox.role);
         if (overwrite != null) {
-            return overwrite.value;
+            return overwrite;
         }
         return getMailboxIds().contains(mailbox.id);
     }
 
     public From[] getFromValues() {
-        return getFromMap().values().toArray(new From[0]);
+        final From[] values = fromMap.values().toArray(new From[0]);
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = applySeenOverwrite(values[i]);
+        }
+        return values;
     }
 
     @Override
@@ -193,14 +263,9 @@ public class ThreadOverviewItem {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ThreadOverviewItem item = (ThreadOverviewItem) o;
-        return Objects.equal(getSubject(), item.getSubject()) &&
-                Objects.equal(getPreview(), item.getPreview()) &&
-                Objects.equal(showAsFlagged(), item.showAsFlagged()) &&
-                Objects.equal(getReceivedAt(), item.getReceivedAt()) &&
-                Objects.equal(mailboxOverwriteEntities, item.mailboxOverwriteEntities) &&
-                Objects.equal(getMailboxIds(), item.getMailboxIds()) &&
-                Objects.equal(everyHasSeenKeyword(), item.everyHasSeenKeyword()) &&
-                Arrays.equals(getFromValues(), item.getFromValues());
+        return fingerprint == item.fingerprint &&
+                Objects.equal(threadId, item.threadId) &&
+                Objects.equal(emailId, item.emailId);
     }
 
     public String[] getKeywords() {
@@ -216,59 +281,11 @@ public class ThreadOverviewItem {
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(emailId, threadId, getOrderedEmails(), threadItemEntities);
+        return (int) (fingerprint ^ (fingerprint >>> 32));
     }
 
-    public static class Email implements IdentifiableEmailWithKeywords, IdentifiableEmailWithMailboxIds {
-
-        public String id;
-        public String preview;
-        public String threadId;
-        public String subject;
-        public Instant receivedAt;
-
-        @Relation(entity = EmailKeywordEntity.class, parentColumn = "id", entityColumn = "emailId", projection = {"keyword"})
-        public Set<String> keywords;
-
-        @Relation(entity = EmailMailboxEntity.class, parentColumn = "id", entityColumn = "emailId", projection = {"mailboxId"})
-        public Set<String> mailboxes;
-
-        @Relation(entity = EmailEmailAddressEntity.class, parentColumn = "id", entityColumn = "emailId", projection = {"email", "name", "type"})
-        public List<EmailAddress> emailAddresses;
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            Email email = (Email) o;
-            return Objects.equal(id, email.id) &&
-                    Objects.equal(preview, email.preview) &&
-                    Objects.equal(threadId, email.threadId) &&
-                    Objects.equal(subject, email.subject) &&
-                    Objects.equal(receivedAt, email.receivedAt) &&
-                    Objects.equal(keywords, email.keywords) &&
-                    Objects.equal(emailAddresses, email.emailAddresses);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hashCode(id, preview, threadId, subject, receivedAt, keywords, emailAddresses);
-        }
-
-        @Override
-        public Map<String, Boolean> getKeywords() {
-            return Maps.asMap(keywords, keyword -> true);
-        }
-
-        @Override
-        public String getId() {
-            return id;
-        }
-
-        @Override
-        public Map<String, Boolean> getMailboxIds() {
-            return Maps.asMap(mailboxes, id -> true);
-        }
+    public enum Change {
+        SEEN, FLAGGED, MAILBOXES
     }
 
     public interface From {
@@ -15,20 +15,34 @@
 
 package rs.ltt.android.provider;
 
+import android.app.SearchManager;
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.net.Uri;
+import android.provider.BaseColumns;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.google.common.base.CharMatcher;
+import java.util.List;
 
+import rs.ltt.android.R;
 import rs.ltt.android.database.AppDatabase;
+import rs.ltt.android.entity.SearchSuggestionEntity;
 
 public class EmailSearchSuggestionsProvider extends ContentProvider {
 
+    private static final int MAX_SUGGESTIONS = 30;
+
+    private static final String[] COLUMNS = {
+            BaseColumns._ID,
+            SearchManager.SUGGEST_COLUMN_TEXT_1,
+            SearchManager.SUGGEST_COLUMN_ICON_1,
+            SearchManager.SUGGEST_COLUMN_QUERY
+    };
+
     @Override
     public boolean onCreate() {
         return false;
@@ -40,8 +54,19 @@ public class EmailSearchSuggestionsProvider extends ContentProvider {
         if (selectionArgs == null || selectionArgs.length != 1) {
             return null;
         }
-        final String query = CharMatcher.is('%').removeFrom(selectionArgs[0]);
-        return AppDatabase.getInstance(getContext()).searchSuggestionDao().getSearchSuggestions(query);
+        final List<SearchSuggestionEntity> suggestions = AppDatabase.getInstance(getContext())
+                .getSearchSuggestionIndex()
+                .search(selectionArgs[0], MAX_SUGGESTIONS);
+        final MatrixCursor cursor = new MatrixCursor(COLUMNS, suggestions.size());
+        for (final SearchSuggestionEntity suggestion : suggestions) {
+            cursor.addRow(new Object[]{
+                    suggestion.id,
+                    suggestion.query,
+                    R.drawable.ic_restore_24dp,
+                    suggestion.query
+            });
+        }
+        return cursor;
     }
 
     @Nullable
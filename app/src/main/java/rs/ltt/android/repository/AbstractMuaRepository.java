@@ -37,7 +37,6 @@ import rs.ltt.android.cache.DatabaseCache;
 import rs.ltt.android.database.AppDatabase;
 import rs.ltt.android.database.LttrsDatabase;
 import rs.ltt.android.entity.AccountWithCredentials;
-import rs.ltt.android.entity.KeywordOverwriteEntity;
 import rs.ltt.android.entity.MailboxOverviewItem;
 import rs.ltt.android.entity.QueryEntity;
 import rs.ltt.android.entity.QueryItemOverwriteEntity;
@@ -58,19 +57,21 @@ public abstract class AbstractMuaRepository {
     protected final Application application;
     protected final long accountId;
     protected final LttrsDatabase database;
+    protected final DatabaseCache cache;
     protected final ListenableFuture<Mua> mua;
 
     AbstractMuaRepository(final Application application, final long accountId) {
         this.application = application;
         this.accountId = accountId;
         LOGGER.debug("creating instance of {}", getClass().getSimpleName());
-        this.database = LttrsDatabase.getInstance(application, accountId);
+        this.database = LttrsDatabase.getInstance(application, accountId, this);
+        this.cache = new DatabaseCache(database);
         this.mua = Futures.transform(getAccount(), account -> Mua.builder()
                 .username(account.username)
                 .password(account.password)
                 .accountId(account.accountId)
                 .sessionResource(account.sessionResource)
-                .cache(new DatabaseCache(database))
+                .cache(cache)
                 .sessionCache(new FileSessionCache(application.getCacheDir()))
                 .queryPageSize(20L)
                 .build(), MoreExecutors.directExecutor());
@@ -81,11 +82,7 @@ public abstract class AbstractMuaRepository {
     }
 
     public ListenableFuture<AccountWithCredentials> getAccount() {
-        return AppDatabase.getInstance(application).accountDao().getAccountFuture(accountId);
-    }
-
-    protected void insert(final Collection<KeywordOverwriteEntity> keywordOverwriteEntities) {
-        database.overwriteDao().insertKeywordOverwrites(keywordOverwriteEntities);
+        return AppDatabase.getInstance(application).getAccountRegistry().getAccount(accountId);
     }
 
     protected void insertQueryItemOverwrite(final String threadId, final Role role) {
@@ -23,12 +23,15 @@ import androidx.work.OneTimeWorkRequest;
 import androidx.work.WorkContinuation;
 import androidx.work.WorkManager;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
+import rs.ltt.android.database.BodyStore;
 import rs.ltt.android.entity.EditableEmail;
 import rs.ltt.android.entity.IdentityWithNameAndEmail;
 import rs.ltt.android.ui.model.ComposeViewModel;
@@ -52,7 +55,13 @@ public class ComposeRepository extends AbstractMuaRepository {
     }
 
     public ListenableFuture<EditableEmail> getEditableEmail(final String id) {
-        return database.threadAndEmailDao().getEditableEmail(accountId, id);
+        final BodyStore bodyStore = database.getBodyStore();
+        return Futures.transform(database.threadAndEmailDao().getEditableEmail(accountId, id), email -> {
+            if (email != null) {
+                email.setBodyStore(bodyStore);
+            }
+            return email;
+        }, MoreExecutors.directExecutor());
     }
 
     public UUID sendEmail(IdentifiableIdentity identity, ComposeViewModel.Draft draft, final Collection<String> inReplyTo, EditableEmail discard) {
@@ -13,7 +13,6 @@ import androidx.work.WorkInfo;
 import androidx.work.WorkManager;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Collections2;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -28,7 +27,6 @@ import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import rs.ltt.android.database.AppDatabase;
-import rs.ltt.android.entity.KeywordOverwriteEntity;
 import rs.ltt.android.entity.MailboxOverviewItem;
 import rs.ltt.android.entity.MailboxOverwriteEntity;
 import rs.ltt.android.entity.MailboxWithRoleAndName;
@@ -116,11 +114,11 @@ public class LttrsRepository extends AbstractMuaRepository {
     }
 
     public void archive(final Collection<String> threadIds) {
+        database.getOptimisticOverlay().setMailboxes(MailboxOverwriteEntity.of(threadIds, Role.INBOX, false));
+        database.getOptimisticOverlay().setMailboxes(MailboxOverwriteEntity.of(threadIds, Role.ARCHIVE, true));
         IO_EXECUTOR.execute(() -> {
             insertQueryItemOverwrite(threadIds, Role.INBOX);
             deleteQueryItemOverwrite(threadIds, Role.ARCHIVE);
-            database.overwriteDao().insertMailboxOverwrites(MailboxOverwriteEntity.of(threadIds, Role.INBOX, false));
-            database.overwriteDao().insertMailboxOverwrites(MailboxOverwriteEntity.of(threadIds, Role.ARCHIVE, true));
             for (final String threadId : threadIds) {
                 final OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(ArchiveWorker.class)
                         .setConstraints(CONNECTED_CONSTRAINT)
@@ -133,20 +131,19 @@ public class LttrsRepository extends AbstractMuaRepository {
     }
 
     public void moveToInbox(final Collection<String> threadIds) {
+        database.getOptimisticOverlay().setMailboxes(
+                MailboxOverwriteEntity.of(threadIds, Role.INBOX, true)
+        );
+        database.getOptimisticOverlay().setMailboxes(
+                MailboxOverwriteEntity.of(threadIds, Role.ARCHIVE, false)
+        );
+        database.getOptimisticOverlay().setMailboxes(
+                MailboxOverwriteEntity.of(threadIds, Role.TRASH, false)
+        );
         IO_EXECUTOR.execute(() -> {
             insertQueryItemOverwrite(threadIds, Role.ARCHIVE);
             insertQueryItemOverwrite(threadIds, Role.TRASH);
             deleteQueryItemOverwrite(threadIds, Role.INBOX);
-
-            database.overwriteDao().insertMailboxOverwrites(
-                    MailboxOverwriteEntity.of(threadIds, Role.INBOX, true)
-            );
-            database.overwriteDao().insertMailboxOverwrites(
-                    MailboxOverwriteEntity.of(threadIds, Role.ARCHIVE, false)
-            );
-            database.overwriteDao().insertMailboxOverwrites(
-                    MailboxOverwriteEntity.of(threadIds, Role.TRASH, false)
-            );
             for (final String threadId : threadIds) {
                 final OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(MoveToInboxWorker.class)
                         .setConstraints(CONNECTED_CONSTRAINT)
@@ -174,10 +171,10 @@ public class LttrsRepository extends AbstractMuaRepository {
             for (final String searchQuery : appDatabase.searchSuggestionDao().getSearchQueries()) {
                 insertSearchQueryItemOverwrite(threadIds, searchQuery);
             }
-            database.overwriteDao().insertMailboxOverwrites(
+            database.getOptimisticOverlay().setMailboxes(
                     MailboxOverwriteEntity.of(threadIds, Role.INBOX, false)
             );
-            database.overwriteDao().insertMailboxOverwrites(
+            database.getOptimisticOverlay().setMailboxes(
                     MailboxOverwriteEntity.of(threadIds, Role.TRASH, true)
             );
             final OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(MoveToTrashWorker.class)
@@ -194,14 +191,12 @@ public class LttrsRepository extends AbstractMuaRepository {
     public void cancelMoveToTrash(final WorkInfo workInfo, final Collection<String> threadIds) {
         Preconditions.checkNotNull(workInfo, "Unable to cancel moveToTrash operation.");
         WorkManager.getInstance(application).cancelWorkById(workInfo.getId());
-        IO_EXECUTOR.execute(() -> {
-            database.overwriteDao().revertMoveToTrashOverwrites(threadIds);
-        });
+        database.getOptimisticOverlay().revertMoveToTrash(threadIds);
     }
 
     public void markImportant(final Collection<String> threadIds) {
         IO_EXECUTOR.execute(() -> {
-            database.overwriteDao().insertMailboxOverwrites(
+            database.getOptimisticOverlay().setMailboxes(
                     MailboxOverwriteEntity.of(threadIds, Role.IMPORTANT, true)
             );
             deleteQueryItemOverwrite(threadIds, Role.IMPORTANT);
@@ -229,7 +224,7 @@ public class LttrsRepository extends AbstractMuaRepository {
     private void markNotImportant(final Collection<String> threadIds, final IdentifiableMailboxWithRole mailbox) {
         Preconditions.checkArgument(mailbox.getRole() == Role.IMPORTANT);
         insertQueryItemOverwrite(threadIds, mailbox);
-        database.overwriteDao().insertMailboxOverwrites(
+        database.getOptimisticOverlay().setMailboxes(
                 MailboxOverwriteEntity.of(threadIds, Role.IMPORTANT, false)
         );
         for (final String threadId : threadIds) {
@@ -258,12 +253,8 @@ public class LttrsRepository extends AbstractMuaRepository {
         Preconditions.checkNotNull(threadIds);
         Preconditions.checkNotNull(keyword);
         LOGGER.info("toggle keyword {} for threads {}", keyword, threadIds);
+        database.getOptimisticOverlay().setKeyword(threadIds, keyword, targetState);
         IO_EXECUTOR.execute(() -> {
-            final Collection<KeywordOverwriteEntity> entities = Collections2.transform(
-                    threadIds,
-                    threadId -> new KeywordOverwriteEntity(threadId, keyword, targetState)
-            );
-            insert(entities);
             if (targetState) {
                 deleteQueryItemOverwrite(threadIds, keyword);
             } else {
@@ -74,7 +74,7 @@ public class MailboxRepository extends AbstractMuaRepository {
         IO_EXECUTOR.execute(() -> {
             if (add.size() > 0) {
                 insertQueryItemOverwrite(threadIds, Role.TRASH);
-                database.overwriteDao().insertMailboxOverwrites(
+                database.getOptimisticOverlay().setMailboxes(
                         MailboxOverwriteEntity.of(threadIds, Role.TRASH, false)
                 );
             }
@@ -83,10 +83,10 @@ public class MailboxRepository extends AbstractMuaRepository {
                     deleteQueryItemOverwrite(threadIds, mailbox);
                 }
                 if (mailbox.getRole() == Role.INBOX) {
-                    database.overwriteDao().insertMailboxOverwrites(
+                    database.getOptimisticOverlay().setMailboxes(
                             MailboxOverwriteEntity.of(threadIds, Role.INBOX, true)
                     );
-                    database.overwriteDao().insertMailboxOverwrites(
+                    database.getOptimisticOverlay().setMailboxes(
                             MailboxOverwriteEntity.of(threadIds, Role.ARCHIVE, false)
                     );
                     insertQueryItemOverwrite(threadIds, Role.ARCHIVE);
@@ -95,10 +95,10 @@ public class MailboxRepository extends AbstractMuaRepository {
             for (final IdentifiableMailboxWithRoleAndName mailbox : remove) {
                 insertQueryItemOverwrite(threadIds, mailbox);
                 if (mailbox.getRole() == Role.INBOX) {
-                    database.overwriteDao().insertMailboxOverwrites(
+                    database.getOptimisticOverlay().setMailboxes(
                             MailboxOverwriteEntity.of(threadIds, Role.INBOX, false)
                     );
-                    database.overwriteDao().insertMailboxOverwrites(
+                    database.getOptimisticOverlay().setMailboxes(
                             MailboxOverwriteEntity.of(threadIds, Role.ARCHIVE, true)
                     );
                     deleteQueryItemOverwrite(threadIds, Role.ARCHIVE);
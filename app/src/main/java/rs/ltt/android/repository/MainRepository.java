@@ -41,7 +41,6 @@ import rs.ltt.android.database.AppDatabase;
 import rs.ltt.android.database.LttrsDatabase;
 import rs.ltt.android.entity.AccountName;
 import rs.ltt.android.entity.AccountWithCredentials;
-import rs.ltt.android.entity.SearchSuggestionEntity;
 import rs.ltt.jmap.client.session.FileSessionCache;
 import rs.ltt.jmap.common.entity.Account;
 import rs.ltt.jmap.mua.Mua;
@@ -62,7 +61,7 @@ public class MainRepository {
     }
 
     public void insertSearchSuggestion(String term) {
-        IO_EXECUTOR.execute(() -> appDatabase.searchSuggestionDao().insert(SearchSuggestionEntity.of(term)));
+        appDatabase.getSearchSuggestionIndex().record(term);
     }
 
     //TODO modify to return only the account id of the account we want to redirect to
@@ -80,6 +79,8 @@ public class MainRepository {
                         sessionResource,
                         accounts
                 );
+                //the invalidation tracker only catches up asynchronously
+                appDatabase.getAccountRegistry().invalidate();
 
                 final Map<String, Long> accountIdMap = credentials.stream()
                         .collect(Collectors.toMap(
@@ -111,7 +112,7 @@ public class MainRepository {
                 .username(account.username)
                 .password(account.password)
                 .sessionResource(account.sessionResource)
-                .cache(new DatabaseCache(LttrsDatabase.getInstance(this.application, account.id)))
+                .cache(new DatabaseCache(LttrsDatabase.getInstance(this.application, account.id, this)))
                 .sessionCache(new FileSessionCache(application.getCacheDir()))
                 .build();
         mua.refreshIdentities();
@@ -127,8 +128,18 @@ public class MainRepository {
         return this.appDatabase.accountDao().getAccountNames();
     }
 
-    public void setSelectedAccount(final Long id) {
+    public ListenableFuture<Void> setSelectedAccount(final Long id) {
         LOGGER.debug("setSelectedAccount({})", id);
-        IO_EXECUTOR.execute(() -> this.appDatabase.accountDao().selectAccount(id));
+        final SettableFuture<Void> settableFuture = SettableFuture.create();
+        IO_EXECUTOR.execute(() -> {
+            try {
+                this.appDatabase.accountDao().selectAccount(id);
+                this.appDatabase.getAccountRegistry().invalidate();
+                settableFuture.set(null);
+            } catch (Exception e) {
+                settableFuture.setException(e);
+            }
+        });
+        return settableFuture;
     }
 }
@@ -17,155 +17,82 @@ package rs.ltt.android.repository;
 
 import android.app.Application;
 
-import androidx.annotation.NonNull;
 import androidx.lifecycle.LiveData;
-import androidx.lifecycle.MutableLiveData;
-import androidx.lifecycle.Transformations;
-import androidx.paging.LivePagedListBuilder;
-import androidx.paging.PagedList;
+import androidx.paging.DataSource;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 
-import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.MoreExecutors;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import kotlinx.coroutines.CoroutineDispatcher;
+import kotlinx.coroutines.ExecutorsKt;
 
+import rs.ltt.android.database.OptimisticOverlay;
+import rs.ltt.android.entity.EmailFtsEntity;
 import rs.ltt.android.entity.MailboxOverviewItem;
 import rs.ltt.android.entity.MailboxWithRoleAndName;
 import rs.ltt.android.entity.ThreadOverviewItem;
 import rs.ltt.jmap.common.entity.Role;
 import rs.ltt.jmap.common.entity.query.EmailQuery;
-import rs.ltt.jmap.mua.Status;
 
 public class QueryRepository extends AbstractMuaRepository {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(QueryRepository.class);
-
-    private final Set<String> runningQueries = new HashSet<>();
-    private final Set<String> runningPagingRequests = new HashSet<>();
-
-    private final MutableLiveData<Set<String>> runningQueriesLiveData = new MutableLiveData<>(runningQueries);
-    private final MutableLiveData<Set<String>> runningPagingRequestsLiveData = new MutableLiveData<>(runningPagingRequests);
+    private static final PagingConfig PAGING_CONFIG = new PagingConfig(30, 30, true);
 
+    private final CoroutineDispatcher readerDispatcher;
 
     public QueryRepository(final Application application, final long accountId) {
         super(application, accountId);
+        this.readerDispatcher = ExecutorsKt.from(database.getReaderExecutor());
     }
 
-    public LiveData<PagedList<ThreadOverviewItem>> getThreadOverviewItems(final EmailQuery query) {
-        return new LivePagedListBuilder<>(database.queryDao().getThreadOverviewItems(query.asHash()), 30)
-                .setBoundaryCallback(new PagedList.BoundaryCallback<ThreadOverviewItem>() {
-                    @Override
-                    public void onZeroItemsLoaded() {
-                        LOGGER.debug("onZeroItemsLoaded");
-                        requestNextPage(query, null); //conceptually in terms of loading indicators this is more of a page request
-                        super.onZeroItemsLoaded();
-                    }
-
-                    @Override
-                    public void onItemAtEndLoaded(@NonNull ThreadOverviewItem itemAtEnd) {
-                        LOGGER.debug("onItemAtEndLoaded({})", itemAtEnd.emailId);
-                        requestNextPage(query, itemAtEnd.emailId);
-                        super.onItemAtEndLoaded(itemAtEnd);
-                    }
-                })
-                .build();
+    public LiveData<PagingData<ThreadOverviewItem>> getThreadOverviewItems(final EmailQuery query) {
+        return getPagingData(query, database.queryDao().getThreadOverviewItems(query.asHash()));
     }
 
-    public ListenableFuture<MailboxWithRoleAndName> getInbox() {
-        return database.mailboxDao().getMailboxFuture(Role.INBOX);
+    /**
+     * Renders hits from the local full text index right away and merges in the results of the
+     * server side search as soon as they have been cached.
+     */
+    public LiveData<PagingData<ThreadOverviewItem>> getSearchResults(final EmailQuery query, final String searchTerm) {
+        final String match = EmailFtsEntity.toMatchQuery(searchTerm);
+        if (match == null) {
+            return getThreadOverviewItems(query);
+        }
+        return getPagingData(query, database.queryDao().getSearchResults(query.asHash(), match, new Role[]{Role.TRASH, Role.JUNK}));
     }
 
-    public ListenableFuture<MailboxWithRoleAndName> getImportant() {
-        return database.mailboxDao().getMailboxFuture(Role.IMPORTANT);
+    private LiveData<PagingData<ThreadOverviewItem>> getPagingData(final EmailQuery query, final DataSource.Factory<Integer, ThreadOverviewItem> factory) {
+        final Pager<Integer, ThreadOverviewItem> pager = new Pager<>(
+                PAGING_CONFIG,
+                null,
+                new ThreadOverviewRemoteMediator(mua, cache, database.queryDao(), query),
+                prepared(factory).asPagingSourceFactory(readerDispatcher)
+        );
+        return PagingLiveData.getLiveData(pager);
     }
 
-    public LiveData<Boolean> isRunningQueryFor(final EmailQuery query) {
-        return Transformations.map(runningQueriesLiveData, queryStrings -> queryStrings.contains(query.asHash()));
+    //runs on the paging executor; rows arrive at the adapter fully prepared
+    private DataSource.Factory<Integer, ThreadOverviewItem> prepared(final DataSource.Factory<Integer, ThreadOverviewItem> factory) {
+        final OptimisticOverlay overlay = database.getOptimisticOverlay();
+        return factory.map(item -> {
+            item.prepare(overlay);
+            return item;
+        });
     }
 
-    public LiveData<Boolean> isRunningPagingRequestFor(final EmailQuery query) {
-        return Transformations.map(runningPagingRequestsLiveData, queryStrings -> queryStrings.contains(query.asHash()));
+    public LiveData<Long> getOverlayVersion() {
+        return database.getOptimisticOverlay().getVersionLiveData();
     }
 
-    public void refresh(final EmailQuery emailQuery) {
-        final String queryString = emailQuery.asHash();
-        synchronized (this) {
-            if (!runningQueries.add(queryString)) {
-                LOGGER.debug("skipping refresh since already running");
-                return;
-            }
-            if (runningPagingRequests.contains(queryString)) {
-                //even though this refresh call is only implicit through the pageRequest we want to display something nice for the user
-                runningQueries.add(queryString);
-                runningQueriesLiveData.postValue(runningQueries);
-                LOGGER.debug("skipping refresh since we are running a page request");
-                return;
-            }
-
-        }
-        final ListenableFuture<Status> statusFuture = Futures.transformAsync(mua, mua -> mua.query(emailQuery), MoreExecutors.directExecutor());
-        statusFuture.addListener(() -> {
-            synchronized (runningQueries) {
-                runningQueries.remove(queryString);
-            }
-            runningQueriesLiveData.postValue(runningQueries);
-            try {
-                Status status = statusFuture.get();
-            } catch (Exception e) {
-                final Throwable cause = e.getCause();
-                LOGGER.debug("unable to refresh", cause);
-            }
-        }, MoreExecutors.directExecutor());
-    }
-
-    public boolean isRefreshing(final EmailQuery emailQuery) {
-        final String queryString = emailQuery.asHash();
-        synchronized (this) {
-            return runningQueries.contains(queryString) || runningPagingRequests.contains(queryString);
-        }
+    public ListenableFuture<MailboxWithRoleAndName> getInbox() {
+        return database.mailboxDao().getMailboxFuture(Role.INBOX);
     }
 
-
-    private void requestNextPage(final EmailQuery emailQuery, String afterEmailId) {
-        final String queryString = emailQuery.asHash();
-        synchronized (this) {
-            if (!runningPagingRequests.add(queryString)) {
-                LOGGER.debug("skipping paging request since already running");
-                return;
-            }
-            runningPagingRequestsLiveData.postValue(runningPagingRequests);
-        }
-        final ListenableFuture<Status> hadResults;
-        if (afterEmailId == null) {
-            hadResults = Futures.transformAsync(mua, mua -> mua.query(emailQuery), MoreExecutors.directExecutor());
-        } else {
-            hadResults = Futures.transformAsync(mua, mua -> mua.query(emailQuery, afterEmailId), MoreExecutors.directExecutor());
-        }
-        hadResults.addListener(() -> {
-            final boolean modifiedImplicitRefresh;
-            synchronized (this) {
-                runningPagingRequests.remove(queryString);
-                modifiedImplicitRefresh = runningQueries.remove(queryString);
-            }
-            runningPagingRequestsLiveData.postValue(runningPagingRequests);
-            if (modifiedImplicitRefresh) {
-                runningQueriesLiveData.postValue(runningQueries);
-            }
-            try {
-                LOGGER.debug("requestNextPageResult=" + hadResults.get());
-            } catch (ExecutionException e) {
-                Throwable cause = e.getCause();
-                LOGGER.debug("error retrieving the next page", cause);
-            } catch (Exception e) {
-                LOGGER.debug("error paging ", e);
-            }
-        }, MoreExecutors.directExecutor());
+    public ListenableFuture<MailboxWithRoleAndName> getImportant() {
+        return database.mailboxDao().getMailboxFuture(Role.IMPORTANT);
     }
 
     public LiveData<MailboxOverviewItem>
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.repository;
+
+import android.app.Application;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.List;
+
+import rs.ltt.android.database.BodyStore;
+import rs.ltt.android.database.LttrsDatabase;
+import rs.ltt.android.entity.BodySize;
+import rs.ltt.android.entity.EmailBody;
+import rs.ltt.android.entity.ExpandedPosition;
+import rs.ltt.android.entity.FullEmail;
+import rs.ltt.android.entity.Seen;
+import rs.ltt.jmap.common.entity.Keyword;
+
+/**
+ * Reads the emails, bodies and Seen state of threads straight from the account database. Unlike
+ * the repositories it does not build a {@link rs.ltt.jmap.mua.Mua}, so one instance can be kept
+ * around cheaply for all threads of an account.
+ */
+public class ThreadLoader {
+
+    private final long accountId;
+    private final LttrsDatabase database;
+
+    public ThreadLoader(final Application application, final long accountId) {
+        this.accountId = accountId;
+        this.database = LttrsDatabase.getInstance(application, accountId, this);
+    }
+
+    public long getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * Reads the emails that make up the first page of {@link ThreadViewRepository#getEmails(String)}.
+     */
+    public ListenableFuture<List<FullEmail>> getFirstEmails(final String threadId) {
+        final FullEmail.BodyLoader bodyLoader = this::getBody;
+        return Futures.transform(database.threadAndEmailDao().getEmails(threadId, ThreadViewRepository.PAGE_SIZE), emails -> {
+            for (final FullEmail email : emails) {
+                email.setBodyLoader(accountId, bodyLoader);
+            }
+            return emails;
+        }, MoreExecutors.directExecutor());
+    }
+
+    public ListenableFuture<EmailBody> getBody(final String emailId) {
+        final BodyStore bodyStore = database.getBodyStore();
+        return Futures.transform(database.threadAndEmailDao().getEmailBody(emailId), emailBody -> {
+            if (emailBody != null) {
+                emailBody.setBodyStore(bodyStore);
+            }
+            return emailBody;
+        }, MoreExecutors.directExecutor());
+    }
+
+    public ListenableFuture<BodySize> getBodySize(final String emailId) {
+        return database.threadAndEmailDao().getBodySize(emailId);
+    }
+
+    public Boolean getSeenOverwrite(final String threadId) {
+        return database.getOptimisticOverlay().getKeyword(threadId, Keyword.SEEN);
+    }
+
+    public ListenableFuture<Seen> getSeen(final String threadId) {
+        final Boolean overwrite = getSeenOverwrite(threadId);
+        if (overwrite != null) {
+            if (overwrite) {
+                return Seen.of(true, database.threadAndEmailDao().getMaxPosition(threadId));
+            } else {
+                return Seen.of(false, database.threadAndEmailDao().getAllPositions(threadId));
+            }
+        }
+        ListenableFuture<List<ExpandedPosition>> unseenFuture = database.threadAndEmailDao().getUnseenPositions(threadId);
+        return Futures.transformAsync(unseenFuture, unseen -> {
+            if (unseen == null || unseen.size() == 0) {
+                return Seen.of(true, database.threadAndEmailDao().getMaxPosition(threadId));
+            } else {
+                return Seen.of(false, Futures.immediateFuture(unseen));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.repository;
+
+import androidx.annotation.NonNull;
+import androidx.paging.ExperimentalPagingApi;
+import androidx.paging.ListenableFutureRemoteMediator;
+import androidx.paging.LoadType;
+import androidx.paging.PagingState;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import rs.ltt.android.cache.DatabaseCache;
+import rs.ltt.android.database.InvalidationCoalescer;
+import rs.ltt.android.database.dao.QueryDao;
+import rs.ltt.android.entity.ThreadOverviewItem;
+import rs.ltt.jmap.common.entity.query.EmailQuery;
+import rs.ltt.jmap.mua.Mua;
+import rs.ltt.jmap.mua.Status;
+
+/**
+ * Fetches the first and all following pages of a query from the server. The server only knows
+ * how to page after its own results so the next page always starts after the last cached query
+ * item; local search hits at the end of the list are skipped.
+ */
+@ExperimentalPagingApi
+class ThreadOverviewRemoteMediator extends ListenableFutureRemoteMediator<Integer, ThreadOverviewItem> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThreadOverviewRemoteMediator.class);
+
+    private final ListenableFuture<Mua> mua;
+    private final DatabaseCache cache;
+    private final QueryDao queryDao;
+    private final EmailQuery query;
+
+    ThreadOverviewRemoteMediator(final ListenableFuture<Mua> mua, final DatabaseCache cache, final QueryDao queryDao, final EmailQuery query) {
+        this.mua = mua;
+        this.cache = cache;
+        this.queryDao = queryDao;
+        this.query = query;
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<InitializeAction> initializeFuture() {
+        //queries are refreshed in the background by the QueryRefreshWorker
+        return Futures.immediateFuture(InitializeAction.SKIP_INITIAL_REFRESH);
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<MediatorResult> loadFuture(@NonNull final LoadType loadType, @NonNull final PagingState<Integer, ThreadOverviewItem> state) {
+        switch (loadType) {
+            case REFRESH:
+                return toMediatorResult(refresh(), "refresh");
+            case APPEND:
+                return toMediatorResult(append(), "append");
+            default:
+                //new items at the top of a query arrive through queryChanges
+                return Futures.immediateFuture(new MediatorResult.Success(true));
+        }
+    }
+
+    private ListenableFuture<Boolean> refresh() {
+        LOGGER.debug("refresh({})", query);
+        return Futures.transform(
+                run(mua -> mua.query(query)),
+                status -> false,
+                MoreExecutors.directExecutor()
+        );
+    }
+
+    private ListenableFuture<Boolean> append() {
+        final String queryString = query.asHash();
+        return Futures.transformAsync(queryDao.getLastEmailIdFuture(queryString), afterEmailId -> {
+            LOGGER.debug("append({}, {})", query, afterEmailId);
+            if (afterEmailId == null) {
+                //a query without any cached items is only exhausted if the server didn't return any items either
+                return Futures.transformAsync(
+                        run(mua -> mua.query(query)),
+                        status -> Futures.transform(
+                                queryDao.getLastEmailIdFuture(queryString),
+                                lastEmailId -> lastEmailId == null,
+                                MoreExecutors.directExecutor()
+                        ),
+                        MoreExecutors.directExecutor()
+                );
+            }
+            return Futures.transform(
+                    run(mua -> mua.query(query, afterEmailId)),
+                    status -> status == Status.UNCHANGED,
+                    MoreExecutors.directExecutor()
+            );
+        }, MoreExecutors.directExecutor());
+    }
+
+    private ListenableFuture<Status> run(final MuaCall call) {
+        final InvalidationCoalescer.Session session = cache.beginSyncSession();
+        final ListenableFuture<Status> statusFuture = Futures.transformAsync(mua, call::call, MoreExecutors.directExecutor());
+        statusFuture.addListener(session::close, MoreExecutors.directExecutor());
+        return statusFuture;
+    }
+
+    private static ListenableFuture<MediatorResult> toMediatorResult(final ListenableFuture<Boolean> endOfPaginationReached, final String action) {
+        return Futures.catching(
+                Futures.<Boolean, MediatorResult>transform(
+                        endOfPaginationReached,
+                        MediatorResult.Success::new,
+                        MoreExecutors.directExecutor()
+                ),
+                Exception.class,
+                e -> {
+                    LOGGER.debug("unable to {} query", action, e);
+                    return new MediatorResult.Error(e);
+                },
+                MoreExecutors.directExecutor()
+        );
+    }
+
+    private interface MuaCall {
+        ListenableFuture<Status> call(Mua mua);
+    }
+}
@@ -25,11 +25,12 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import rs.ltt.android.entity.ExpandedPosition;
+import rs.ltt.android.entity.EmailBody;
 import rs.ltt.android.entity.FullEmail;
-import rs.ltt.android.entity.KeywordOverwriteEntity;
 import rs.ltt.android.entity.MailboxOverwriteEntity;
 import rs.ltt.android.entity.MailboxWithRoleAndName;
 import rs.ltt.android.entity.Seen;
@@ -37,12 +38,59 @@ import rs.ltt.android.entity.ThreadHeader;
 
 public class ThreadViewRepository extends AbstractMuaRepository {
 
+    public static final int PAGE_SIZE = 30;
+
+    //bodies that have been requested for this thread; fetched at most once
+    private final Map<String, ListenableFuture<EmailBody>> bodies = new HashMap<>();
+
+    private final ThreadLoader loader;
+
     public ThreadViewRepository(final Application application, final long accountId) {
         super(application, accountId);
+        this.loader = new ThreadLoader(application, accountId);
     }
 
     public LiveData<PagedList<FullEmail>> getEmails(String threadId) {
-        return new LivePagedListBuilder<>(database.threadAndEmailDao().getEmails(threadId), 30).build();
+        final FullEmail.BodyLoader bodyLoader = this::getBody;
+        return new LivePagedListBuilder<>(database.threadAndEmailDao().getEmails(threadId).map(email -> {
+            email.setBodyLoader(accountId, bodyLoader);
+            return email;
+        }), PAGE_SIZE)
+                .setFetchExecutor(database.getReaderExecutor())
+                .build();
+    }
+
+    public ListenableFuture<EmailBody> getBody(final String emailId) {
+        synchronized (bodies) {
+            final ListenableFuture<EmailBody> cached = bodies.get(emailId);
+            if (cached != null) {
+                return cached;
+            }
+            final ListenableFuture<EmailBody> body = loader.getBody(emailId);
+            bodies.put(emailId, body);
+            //a failed fetch is retried the next time the body is requested
+            body.addListener(() -> {
+                if (isFailed(body)) {
+                    synchronized (bodies) {
+                        bodies.remove(emailId);
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+            return body;
+        }
+    }
+
+    private static boolean isFailed(final ListenableFuture<?> future) {
+        try {
+            Futures.getDone(future);
+            return false;
+        } catch (final Exception e) {
+            return true;
+        }
+    }
+
+    public void touch(final String threadId) {
+        database.getWriterExecutor().execute(() -> database.retentionDao().touch(threadId));
     }
 
     public LiveData<ThreadHeader> getThreadHeader(String threadId) {
@@ -58,25 +106,11 @@ public class ThreadViewRepository extends AbstractMuaRepository {
         return database.overwriteDao().getMailboxOverwrites(threadId);
     }
 
-    public ListenableFuture<Seen> getSeen(String threadId) {
-        ListenableFuture<KeywordOverwriteEntity> overwriteFuture = database.overwriteDao().getKeywordOverwrite(threadId);
-        return Futures.transformAsync(overwriteFuture, overwrite -> {
-            if (overwrite != null) {
-                if (overwrite.value) {
-                    return Seen.of(true, database.threadAndEmailDao().getMaxPosition(threadId));
-                } else {
-                    return Seen.of(false, database.threadAndEmailDao().getAllPositions(threadId));
-                }
-            } else {
-                ListenableFuture<List<ExpandedPosition>> unseenFuture = database.threadAndEmailDao().getUnseenPositions(threadId);
-                return Futures.transformAsync(unseenFuture, unseen -> {
-                    if (unseen == null || unseen.size() == 0) {
-                        return Seen.of(true, database.threadAndEmailDao().getMaxPosition(threadId));
-                    } else {
-                        return Seen.of(false, Futures.immediateFuture(unseen));
-                    }
-                }, MoreExecutors.directExecutor());
-            }
-        }, MoreExecutors.directExecutor());
+    public Boolean getSeenOverwrite(final String threadId) {
+        return loader.getSeenOverwrite(threadId);
+    }
+
+    public ListenableFuture<Seen> getSeen(final String threadId) {
+        return loader.getSeen(threadId);
     }
 }
@@ -15,7 +15,6 @@
 
 package rs.ltt.android.ui;
 
-import androidx.paging.PagedList;
 import androidx.recyclerview.selection.Selection;
 
 import java.util.List;
@@ -43,14 +42,10 @@ public class ActionModeMenuConfiguration {
 
         public static SelectionInfo vote(final Selection<String> selection,
                                          final ThreadOverviewAdapter threadOverviewAdapter) {
-            final PagedList<ThreadOverviewItem> currentList = threadOverviewAdapter.getCurrentList();
-            if (currentList == null) {
-                return new SelectionInfo(false, false, false);
-            }
             int read = 0;
             int important = 0;
             int flagged = 0;
-            final List<ThreadOverviewItem> threadOverviewItems = currentList.snapshot();
+            final List<ThreadOverviewItem> threadOverviewItems = threadOverviewAdapter.snapshot();
             for (ThreadOverviewItem thread : threadOverviewItems) {
                 if (thread != null && selection.contains(thread.threadId)) {
                     if (thread.everyHasSeenKeyword()) {
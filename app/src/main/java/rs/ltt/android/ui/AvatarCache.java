@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.ui;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Strings;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import rs.ltt.android.util.ConsistentColorGeneration;
+
+/**
+ * Memoizes the colour and the initial letter of an avatar and keeps rasterized avatars keyed by
+ * email, name, size and theme. Bitmaps are bounded by their byte count.
+ */
+public class AvatarCache {
+
+    @ColorInt
+    private static final int DEFAULT_COLOR = 0xff757575;
+
+    //pattern from @cketti (K-9 Mail)
+    private static final Pattern LETTER_PATTERN = Pattern.compile("\\p{L}\\p{M}*");
+
+    private static final int MAX_BITMAP_BYTES = 4 * 1024 * 1024;
+
+    private static final String NO_LETTER = "";
+
+    private static volatile AvatarCache INSTANCE;
+
+    private final LruCache<String, Integer> colors;
+    private final LruCache<String, String> letters;
+    private final LruCache<Key, Bitmap> bitmaps;
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Rect textBounds = new Rect();
+
+    @VisibleForTesting
+    AvatarCache(final int maxEntries, final int maxBitmapBytes) {
+        this.colors = new LruCache<>(maxEntries);
+        this.letters = new LruCache<>(maxEntries);
+        this.bitmaps = new LruCache<Key, Bitmap>(maxBitmapBytes) {
+            @Override
+            protected int sizeOf(final Key key, final Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        this.textPaint.setColor(Color.WHITE);
+        this.textPaint.setTextAlign(Paint.Align.LEFT);
+        this.textPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.NORMAL));
+    }
+
+    public static AvatarCache getInstance() {
+        if (INSTANCE == null) {
+            synchronized (AvatarCache.class) {
+                if (INSTANCE == null) {
+                    final long maxMemory = Runtime.getRuntime().maxMemory();
+                    INSTANCE = new AvatarCache(512, (int) Math.min(MAX_BITMAP_BYTES, maxMemory / 32));
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    static int getTheme(final Context context) {
+        return context.getResources().getConfiguration().uiMode & Configuration.UI_MODE_NIGHT_MASK;
+    }
+
+    @ColorInt
+    int getColor(final String key) {
+        if (key == null) {
+            return DEFAULT_COLOR;
+        }
+        final Integer cached = colors.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final int color = ConsistentColorGeneration.rgbFromKey(key);
+        colors.put(key, color);
+        return color;
+    }
+
+    String getLetter(final String name) {
+        if (Strings.isNullOrEmpty(name)) {
+            return null;
+        }
+        String letter = letters.get(name);
+        if (letter == null) {
+            final Matcher matcher = LETTER_PATTERN.matcher(name);
+            letter = matcher.find() ? matcher.group().toUpperCase(Locale.ROOT) : NO_LETTER;
+            letters.put(name, letter);
+        }
+        return letter.isEmpty() ? null : letter;
+    }
+
+    /**
+     * Returns the rasterized avatar in the given size. Avatars that are not cached are drawn on
+     * the calling thread.
+     */
+    Bitmap getBitmap(final String key, final String name, final int size, final int theme) {
+        final Key cacheKey = new Key(key, name, size, theme);
+        final Bitmap cached = bitmaps.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        final Bitmap bitmap = rasterize(getColor(key), getLetter(name), size);
+        bitmaps.put(cacheKey, bitmap);
+        return bitmap;
+    }
+
+    private synchronized Bitmap rasterize(@ColorInt final int color, final String letter, final int size) {
+        final Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        final float radius = size / 2.0f;
+        paint.setColor(color);
+        canvas.drawCircle(radius, radius, radius, paint);
+        if (letter != null) {
+            textPaint.setTextSize(radius);
+            textPaint.getTextBounds(letter, 0, letter.length(), textBounds);
+            final float x = radius - textBounds.width() / 2f - textBounds.left;
+            final float y = radius + textBounds.height() / 2f - textBounds.bottom;
+            canvas.drawText(letter, x, y, textPaint);
+        }
+        return bitmap;
+    }
+
+    private static final class Key {
+        private final String key;
+        private final String name;
+        private final int size;
+        private final int theme;
+
+        private Key(final String key, final String name, final int size, final int theme) {
+            this.key = key;
+            this.name = name;
+            this.size = size;
+            this.theme = theme;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key other = (Key) o;
+            return size == other.size &&
+                    theme == other.theme &&
+                    Objects.equal(key, other.key) &&
+                    Objects.equal(name, other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key, name, size, theme);
+        }
+    }
+}
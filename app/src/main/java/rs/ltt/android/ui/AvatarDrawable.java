@@ -15,61 +15,54 @@
 
 package rs.ltt.android.ui;
 
+import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
 import android.graphics.drawable.ColorDrawable;
 
-import com.google.common.base.Strings;
-
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+/**
+ * Draws a rasterized avatar from the {@link AvatarCache}. The bitmap is looked up once per size;
+ * subsequent draws don't allocate.
+ */
+public class AvatarDrawable extends ColorDrawable {
 
-import rs.ltt.android.util.ConsistentColorGeneration;
+    private static final Paint BITMAP_PAINT = new Paint(Paint.FILTER_BITMAP_FLAG);
 
-public class AvatarDrawable extends ColorDrawable {
+    private final AvatarCache cache;
+    private final String name;
+    private final String key;
+    private final int theme;
 
-    //pattern from @cketti (K-9 Mail)
-    private static final Pattern LETTER_PATTERN = Pattern.compile("\\p{L}\\p{M}*");
+    private Bitmap bitmap;
 
-    private final Paint paint;
-    private final Paint textPaint;
-    private final String letter;
+    AvatarDrawable(final Context context, final String name, final String key) {
+        this(AvatarCache.getInstance(), AvatarCache.getTheme(context), name, key);
+    }
 
-    AvatarDrawable(String name, String key) {
-        paint = new Paint();
-        paint.setColor(key == null ? 0xff757575 : ConsistentColorGeneration.rgbFromKey(key));
-        paint.setAntiAlias(true);
-        textPaint = new Paint();
-        textPaint.setColor(Color.WHITE);
-        textPaint.setTextAlign(Paint.Align.CENTER);
-        textPaint.setAntiAlias(true);
-        textPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.NORMAL));
-        final Matcher matcher = LETTER_PATTERN.matcher(Strings.nullToEmpty(name));
-        this.letter = matcher.find() ? matcher.group().toUpperCase(Locale.ROOT) : null;
+    AvatarDrawable(final AvatarCache cache, final int theme, final String name, final String key) {
+        this.cache = cache;
+        this.theme = theme;
+        this.name = name;
+        this.key = key;
     }
 
     @Override
     public void draw(Canvas canvas) {
-        final float midX = getBounds().width() / 2.0f;
-        final float midY = getBounds().height() / 2.0f;
-        final float radius = Math.min(getBounds().width(), getBounds().height()) / 2.0f;
-        textPaint.setTextSize(radius);
-        final Rect r = new Rect();
-        canvas.getClipBounds(r);
-        final int cHeight = r.height();
-        final int cWidth = r.width();
-        canvas.drawCircle(midX, midY, radius, paint);
-        if (letter == null) {
+        final Rect bounds = getBounds();
+        final int size = Math.min(bounds.width(), bounds.height());
+        if (size <= 0) {
             return;
         }
-        textPaint.setTextAlign(Paint.Align.LEFT);
-        textPaint.getTextBounds(letter, 0, letter.length(), r);
-        float x = cWidth / 2f - r.width() / 2f - r.left;
-        float y = cHeight / 2f + r.height() / 2f - r.bottom;
-        canvas.drawText(letter, x, y, textPaint);
+        if (bitmap == null || bitmap.getWidth() != size) {
+            bitmap = cache.getBitmap(key, name, size, theme);
+        }
+        canvas.drawBitmap(
+                bitmap,
+                bounds.left + (bounds.width() - size) / 2f,
+                bounds.top + (bounds.height() - size) / 2f,
+                BITMAP_PAINT
+        );
     }
 }
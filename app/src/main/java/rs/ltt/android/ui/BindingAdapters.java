@@ -58,7 +58,6 @@ import rs.ltt.android.entity.SubjectWithImportance;
 import rs.ltt.android.entity.ThreadOverviewItem;
 import rs.ltt.jmap.common.entity.Role;
 import rs.ltt.jmap.mua.util.EmailAddressUtil;
-import rs.ltt.jmap.mua.util.EmailBodyUtil;
 
 public class BindingAdapters {
 
@@ -96,22 +95,6 @@ public class BindingAdapters {
         }
     }
 
-    @BindingAdapter("body")
-    public static void setBody(final TextView textView, String body) {
-        final SpannableStringBuilder builder = new SpannableStringBuilder();
-        for (EmailBodyUtil.Block block : EmailBodyUtil.parse(body)) {
-            if (builder.length() != 0) {
-                builder.append('\n');
-            }
-            int start = builder.length();
-            builder.append(block.toString());
-            if (block.getDepth() > 0) {
-                builder.setSpan(new QuoteSpan(block.getDepth(), textView.getContext()), start, builder.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-            }
-        }
-        textView.setText(builder);
-    }
-
     @BindingAdapter("to")
     public static void setTo(final TextView textView, final Collection<String> names) {
         final boolean shorten = names.size() > 1;
@@ -130,9 +113,9 @@ public class BindingAdapters {
     public static void setFrom(final ImageView imageView, final FullEmail.From from) {
         if (from instanceof FullEmail.NamedFrom) {
             final FullEmail.NamedFrom named = (FullEmail.NamedFrom) from;
-            imageView.setImageDrawable(new AvatarDrawable(named.getName(), named.getEmail()));
+            imageView.setImageDrawable(new AvatarDrawable(imageView.getContext(), named.getName(), named.getEmail()));
         } else {
-            imageView.setImageDrawable(new AvatarDrawable(null, null));
+            imageView.setImageDrawable(new AvatarDrawable(imageView.getContext(), null, null));
         }
     }
 
@@ -234,13 +217,13 @@ public class BindingAdapters {
             return;
         }
         if (from == null) {
-            imageView.setImageDrawable(new AvatarDrawable(null, null));
+            imageView.setImageDrawable(new AvatarDrawable(imageView.getContext(), null, null));
         } else {
             final ThreadOverviewItem.From value = from.getValue();
             if (value instanceof ThreadOverviewItem.NamedFrom) {
-                imageView.setImageDrawable(new AvatarDrawable(((ThreadOverviewItem.NamedFrom) value).name, from.getKey()));
+                imageView.setImageDrawable(new AvatarDrawable(imageView.getContext(), ((ThreadOverviewItem.NamedFrom) value).name, from.getKey()));
             } else {
-                imageView.setImageDrawable(new AvatarDrawable(null, null)); //TODO do something nice to indicate draft
+                imageView.setImageDrawable(new AvatarDrawable(imageView.getContext(), null, null)); //TODO do something nice to indicate draft
             }
         }
     }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.ui;
+
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs the frame times of a RecyclerView while it is settling after a fling: number of frames,
+ * mean and longest frame and the frames that took longer than one frame at 60Hz.
+ */
+public class FlingFrameMonitor extends RecyclerView.OnScrollListener implements Choreographer.FrameCallback {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlingFrameMonitor.class);
+
+    private static final long FRAME_BUDGET_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    private final String name;
+
+    private boolean monitoring = false;
+    private long lastFrameTimeNanos;
+    private int frames;
+    private int slowFrames;
+    private long totalNanos;
+    private long maxNanos;
+
+    private FlingFrameMonitor(final String name) {
+        this.name = name;
+    }
+
+    public static void attach(final RecyclerView recyclerView, final String name) {
+        recyclerView.addOnScrollListener(new FlingFrameMonitor(name));
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull final RecyclerView recyclerView, final int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_SETTLING) {
+            start();
+        } else {
+            stop();
+        }
+    }
+
+    private void start() {
+        if (monitoring) {
+            return;
+        }
+        monitoring = true;
+        lastFrameTimeNanos = 0;
+        frames = 0;
+        slowFrames = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private void stop() {
+        if (!monitoring) {
+            return;
+        }
+        monitoring = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        if (frames > 0) {
+            LOGGER.debug(
+                    "{} fling: {} frames, mean {}µs, max {}µs, {} over budget",
+                    name,
+                    frames,
+                    TimeUnit.NANOSECONDS.toMicros(totalNanos / frames),
+                    TimeUnit.NANOSECONDS.toMicros(maxNanos),
+                    slowFrames
+            );
+        }
+    }
+
+    @Override
+    public void doFrame(final long frameTimeNanos) {
+        if (!monitoring) {
+            return;
+        }
+        if (lastFrameTimeNanos != 0) {
+            final long duration = frameTimeNanos - lastFrameTimeNanos;
+            ++frames;
+            totalNanos += duration;
+            maxNanos = Math.max(maxNanos, duration);
+            //vsync jitter; anything clearly above one frame means at least one frame was dropped
+            if (duration > FRAME_BUDGET_NANOS * 3 / 2) {
+                ++slowFrames;
+            }
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
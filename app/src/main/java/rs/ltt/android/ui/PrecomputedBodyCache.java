@@ -0,0 +1,215 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.ui;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.text.Layout;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.StaticLayout;
+import android.text.util.Linkify;
+import android.util.LruCache;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+import rs.ltt.android.entity.BodyStructure;
+import rs.ltt.android.entity.EmailBody;
+import rs.ltt.android.entity.FullEmail;
+
+/**
+ * Renders message bodies (quote spans and links) and measures the result off the main thread.
+ * Bodies are split into chunks of {@link #CHUNK_LENGTH} characters that are rendered and laid out
+ * independently, so the size of a single layout doesn’t grow with the size of the body. The split
+ * is kept on the {@link EmailBody}. Rendered chunks are kept keyed by account, email id, chunk,
+ * text width and text appearance; the cache is bounded by the total number of characters.
+ */
+public class PrecomputedBodyCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrecomputedBodyCache.class);
+
+    private static final int MAX_CHARACTERS = 1024 * 1024;
+
+    public static final int CHUNK_LENGTH = 4096;
+
+    private static volatile PrecomputedBodyCache INSTANCE;
+
+    private final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+
+    private final LruCache<Key, PrecomputedTextCompat> cache = new LruCache<Key, PrecomputedTextCompat>(MAX_CHARACTERS) {
+        @Override
+        protected int sizeOf(final Key key, final PrecomputedTextCompat text) {
+            return Math.max(1, text.length());
+        }
+    };
+
+    private final Map<Object, ListenableFuture<?>> running = new HashMap<>();
+
+    public static PrecomputedBodyCache getInstance() {
+        if (INSTANCE == null) {
+            synchronized (PrecomputedBodyCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new PrecomputedBodyCache();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public ListenableFuture<Integer> getChunkCount(final FullEmail email) {
+        return Futures.transform(getSplitBody(email), body -> body == null ? 0 : body.getChunks(CHUNK_LENGTH).size(), MoreExecutors.directExecutor());
+    }
+
+    public PrecomputedTextCompat getIfPresent(final Context context, final long accountId, final String emailId, final int chunk, final int width, final PrecomputedTextCompat.Params params) {
+        return cache.get(new Key(accountId, emailId, chunk, width, params, isNightMode(context)));
+    }
+
+    public ListenableFuture<PrecomputedTextCompat> get(final Context context, final FullEmail email, final int chunk, final int width, final PrecomputedTextCompat.Params params) {
+        final Key key = new Key(email.getAccountId(), email.id, chunk, width, params, isNightMode(context));
+        final PrecomputedTextCompat cached = cache.get(key);
+        if (cached != null) {
+            return Futures.immediateFuture(cached);
+        }
+        return Futures.transformAsync(getSplitBody(email), body -> submit(key, () -> {
+            final long start = System.nanoTime();
+            final List<BodyStructure.Chunk> chunks = body == null ? Collections.emptyList() : body.getChunks(CHUNK_LENGTH);
+            final List<BodyStructure.Block> blocks = chunk < chunks.size() ? chunks.get(chunk).getBlocks(body.getBlocks()) : Collections.emptyList();
+            final PrecomputedTextCompat text = PrecomputedTextCompat.create(render(context, blocks), params);
+            warmUp(text, width, params);
+            cache.put(key, text);
+            LOGGER.debug("rendered chunk {} of {} ({} chars) in {}ms", chunk, email.id, text.length(), (System.nanoTime() - start) / 1_000_000);
+            return text;
+        }), MoreExecutors.directExecutor());
+    }
+
+    //the split is kept on the body, which lives as long as the thread is shown
+    private ListenableFuture<EmailBody> getSplitBody(final FullEmail email) {
+        return Futures.transformAsync(email.getBody(), body -> {
+            if (body == null || body.isSplit(CHUNK_LENGTH)) {
+                return Futures.immediateFuture(body);
+            }
+            return submit(body, () -> {
+                body.getChunks(CHUNK_LENGTH);
+                return body;
+            });
+        }, MoreExecutors.directExecutor());
+    }
+
+    //concurrent requests for the same key share one task
+    @SuppressWarnings("unchecked")
+    private <T> ListenableFuture<T> submit(final Object key, final Callable<T> callable) {
+        synchronized (running) {
+            final ListenableFuture<T> pending = (ListenableFuture<T>) running.get(key);
+            if (pending != null) {
+                return pending;
+            }
+            final ListenableFuture<T> future = executor.submit(callable);
+            running.put(key, future);
+            future.addListener(() -> {
+                synchronized (running) {
+                    running.remove(key);
+                }
+            }, MoreExecutors.directExecutor());
+            return future;
+        }
+    }
+
+    //fills the text layout cache for the actual line width so that the TextView's own layout pass is cheap
+    private static void warmUp(final PrecomputedTextCompat text, final int width, final PrecomputedTextCompat.Params params) {
+        if (width <= 0 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return;
+        }
+        StaticLayout.Builder.obtain(text, 0, text.length(), params.getTextPaint(), width)
+                .setAlignment(Layout.Alignment.ALIGN_NORMAL)
+                .setBreakStrategy(params.getBreakStrategy())
+                .setHyphenationFrequency(params.getHyphenationFrequency())
+                .build();
+    }
+
+    public static Spannable render(final Context context, final List<BodyStructure.Block> blocks) {
+        final SpannableStringBuilder builder = new SpannableStringBuilder();
+        for (BodyStructure.Block block : blocks) {
+            if (builder.length() != 0) {
+                builder.append('\n');
+            }
+            int start = builder.length();
+            builder.append(block.toString());
+            if (block.getDepth() > 0) {
+                builder.setSpan(new QuoteSpan(block.getDepth(), context), start, builder.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+        Linkify.addLinks(builder, Linkify.WEB_URLS);
+        return builder;
+    }
+
+    private static boolean isNightMode(final Context context) {
+        return (context.getResources().getConfiguration().uiMode & Configuration.UI_MODE_NIGHT_MASK) == Configuration.UI_MODE_NIGHT_YES;
+    }
+
+    //email ids are only unique within an account
+    private static final class Key {
+        private final long accountId;
+        private final String emailId;
+        private final int chunk;
+        private final int width;
+        private final PrecomputedTextCompat.Params params;
+        private final boolean nightMode;
+
+        private Key(final long accountId, final String emailId, final int chunk, final int width, final PrecomputedTextCompat.Params params, final boolean nightMode) {
+            this.accountId = accountId;
+            this.emailId = emailId;
+            this.chunk = chunk;
+            this.width = width;
+            this.params = params;
+            this.nightMode = nightMode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return accountId == key.accountId &&
+                    chunk == key.chunk &&
+                    width == key.width &&
+                    nightMode == key.nightMode &&
+                    Objects.equal(emailId, key.emailId) &&
+                    Objects.equal(params, key.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(accountId, emailId, chunk, width, params, nightMode);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rs.ltt.android.ui;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.view.ViewCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rs.ltt.android.databinding.ItemEmailBodyChunkBinding;
+import rs.ltt.android.entity.BodySize;
+import rs.ltt.android.entity.ExpandedPosition;
+import rs.ltt.android.entity.FullEmail;
+import rs.ltt.android.entity.Seen;
+import rs.ltt.android.entity.ThreadOverviewItem;
+import rs.ltt.android.repository.ThreadLoader;
+import rs.ltt.android.ui.adapter.ThreadOverviewAdapter;
+import rs.ltt.android.util.MainThreadExecutor;
+
+/**
+ * Prepares the top visible threads of a thread list while the list is idle. This covers the Seen
+ * calculation, the first page of emails, and the bodies of the emails that will be shown expanded.
+ * The result is handed over to the {@link rs.ltt.android.ui.model.ThreadViewModel} that opens the
+ * thread next. Prefetching stops as soon as the list is scrolled again.
+ * <p>
+ * Bodies are rendered for the width of the thread list. That matches the thread view as long as
+ * both fill the same window.
+ * <p>
+ * Expired prefetches are dropped whenever the prefetched threads are accessed.
+ */
+public class ThreadPrefetcher extends RecyclerView.OnScrollListener implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThreadPrefetcher.class);
+
+    private static final long IDLE_DELAY_MILLIS = 250;
+
+    private static final int MAX_THREADS = 3;
+
+    private static final long MAX_AGE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    //characters of body text a single prefetched thread may hold on to
+    private static final int MAX_BODY_CHARACTERS = 64 * 1024;
+
+    private static final Map<String, Prefetch> PREFETCHED = new LinkedHashMap<String, Prefetch>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Prefetch> eldest) {
+            return size() > MAX_THREADS;
+        }
+    };
+
+    private final ThreadLoader loader;
+    private final RecyclerView recyclerView;
+    private final ThreadOverviewAdapter adapter;
+    private final TextView probe;
+    private final PrecomputedBodyCache bodyCache = PrecomputedBodyCache.getInstance();
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private ThreadPrefetcher(final RecyclerView recyclerView, final ThreadOverviewAdapter adapter, final long accountId) {
+        this.loader = new ThreadLoader((Application) recyclerView.getContext().getApplicationContext(), accountId);
+        this.recyclerView = recyclerView;
+        this.adapter = adapter;
+        //has the same text appearance as the body in the thread view
+        this.probe = ItemEmailBodyChunkBinding.inflate(LayoutInflater.from(recyclerView.getContext()), recyclerView, false).text;
+    }
+
+    public static void attach(final RecyclerView recyclerView, final ThreadOverviewAdapter adapter, final long accountId) {
+        final ThreadPrefetcher prefetcher = new ThreadPrefetcher(recyclerView, adapter, accountId);
+        recyclerView.addOnScrollListener(prefetcher);
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(final int positionStart, final int itemCount) {
+                if (recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE) {
+                    prefetcher.schedule();
+                }
+            }
+        });
+    }
+
+    /**
+     * @param seenOverwrite the current seen overwrite of the thread. A prefetch made under a
+     *                      different one is outdated.
+     * @return the prefetched state of the thread or null if the thread hasn’t been prefetched
+     * recently. A prefetch can only be taken once.
+     */
+    public static Prefetch take(final long accountId, final String threadId, final Boolean seenOverwrite) {
+        final Prefetch prefetch;
+        synchronized (PREFETCHED) {
+            removeExpired();
+            prefetch = PREFETCHED.remove(key(accountId, threadId));
+        }
+        if (prefetch == null || isFailed(prefetch.seen)) {
+            return null;
+        }
+        //the thread has been marked as read or unread in the meantime
+        if (!Objects.equal(prefetch.seenOverwrite, seenOverwrite)) {
+            return null;
+        }
+        return prefetch;
+    }
+
+    //must be called while holding the lock on PREFETCHED
+    private static void removeExpired() {
+        final Iterator<Prefetch> iterator = PREFETCHED.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull final RecyclerView recyclerView, final int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            schedule();
+        } else {
+            cancel();
+        }
+    }
+
+    private void schedule() {
+        generation.incrementAndGet();
+        recyclerView.removeCallbacks(this);
+        recyclerView.postDelayed(this, IDLE_DELAY_MILLIS);
+    }
+
+    private void cancel() {
+        generation.incrementAndGet();
+        recyclerView.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        final RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (!ViewCompat.isAttachedToWindow(recyclerView) || !(layoutManager instanceof LinearLayoutManager)) {
+            return;
+        }
+        final LinearLayoutManager linearLayoutManager = (LinearLayoutManager) layoutManager;
+        final int first = linearLayoutManager.findFirstVisibleItemPosition();
+        final int last = linearLayoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+        final List<String> threadIds = new ArrayList<>();
+        for (int position = first; position <= last && threadIds.size() < MAX_THREADS; ++position) {
+            final ThreadOverviewItem item = adapter.peekThread(position);
+            if (item != null) {
+                threadIds.add(item.threadId);
+            }
+        }
+        prefetch(threadIds.iterator(), generation.get());
+    }
+
+    //threads are prefetched one after another so that a scroll stops the work after the current one
+    private void prefetch(final Iterator<String> threadIds, final int generation) {
+        if (generation != this.generation.get() || !threadIds.hasNext()) {
+            return;
+        }
+        final String threadId = threadIds.next();
+        final String key = key(loader.getAccountId(), threadId);
+        final boolean exists;
+        synchronized (PREFETCHED) {
+            removeExpired();
+            exists = PREFETCHED.containsKey(key);
+        }
+        if (exists) {
+            prefetch(threadIds, generation);
+            return;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        final Prefetch prefetch = new Prefetch(loader.getSeenOverwrite(threadId), loader.getSeen(threadId));
+        synchronized (PREFETCHED) {
+            PREFETCHED.put(key, prefetch);
+        }
+        final ListenableFuture<List<FullEmail>> emails = loader.getFirstEmails(threadId);
+        final Context context = recyclerView.getContext();
+        final int width = getTextWidth();
+        final PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(probe);
+        final ListenableFuture<Void> bodies = Futures.whenAllSucceed(prefetch.seen, emails).callAsync(() -> {
+            if (generation != this.generation.get()) {
+                return Futures.immediateFuture(null);
+            }
+            final Set<String> expanded = new HashSet<>();
+            for (final ExpandedPosition expandedPosition : Futures.getDone(prefetch.seen).getExpandedPositions()) {
+                expanded.add(expandedPosition.emailId);
+            }
+            final List<ListenableFuture<?>> futures = new ArrayList<>();
+            for (final FullEmail email : Futures.getDone(emails)) {
+                if (expanded.contains(email.id)) {
+                    futures.add(warmBody(prefetch, email, context, width, params, generation));
+                }
+            }
+            return Futures.whenAllComplete(futures).call(() -> null, MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor());
+        Futures.addCallback(bodies, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(final Void result) {
+                LOGGER.debug("prefetched thread {} in {}ms", threadId, SystemClock.elapsedRealtime() - start);
+                prefetch(threadIds, generation);
+            }
+
+            @Override
+            public void onFailure(@NonNull final Throwable throwable) {
+                LOGGER.debug("Unable to prefetch thread {}", threadId, throwable);
+                synchronized (PREFETCHED) {
+                    PREFETCHED.remove(key);
+                }
+                prefetch(threadIds, generation);
+            }
+        }, MainThreadExecutor.getInstance());
+    }
+
+    //the budget is checked before the body is loaded; bodies that live in the BodyStore are larger
+    //than the budget of a thread and aren't prefetched
+    private ListenableFuture<?> warmBody(final Prefetch prefetch, final FullEmail email, final Context context, final int width, final PrecomputedTextCompat.Params params, final int generation) {
+        if (!prefetch.hasBudget()) {
+            return Futures.immediateFuture(null);
+        }
+        return Futures.<BodySize, PrecomputedTextCompat>transformAsync(loader.getBodySize(email.id), size -> {
+            if (size.stored || generation != this.generation.get() || !prefetch.reserve(size.length)) {
+                return Futures.immediateFuture(null);
+            }
+            return bodyCache.get(context, email, 0, width, params);
+        }, MoreExecutors.directExecutor());
+    }
+
+    private int getTextWidth() {
+        if (!(probe.getLayoutParams() instanceof ViewGroup.MarginLayoutParams)) {
+            return 0;
+        }
+        final ViewGroup.MarginLayoutParams layoutParams = (ViewGroup.MarginLayoutParams) probe.getLayoutParams();
+        return recyclerView.getWidth() - layoutParams.leftMargin - layoutParams.rightMargin
+                - probe.getPaddingLeft() - probe.getPaddingRight();
+    }
+
+    private static String key(final long accountId, final String threadId) {
+        return accountId + "/" + threadId;
+    }
+
+    private static boolean isFailed(final ListenableFuture<?> future) {
+        if (!future.isDone()) {
+            return false;
+        }
+        try {
+            Futures.getDone(future);
+            return false;
+        } catch (final Exception e) {
+            return true;
+        }
+    }
+
+    public static final class Prefetch {
+        private final Boolean seenOverwrite;
+        private final ListenableFuture<Seen> seen;
+        private final long createdAt = SystemClock.elapsedRealtime();
+        private int bodyCharacters = 0;
+
+        private Prefetch(final Boolean seenOverwrite, final ListenableFuture<Seen> seen) {
+            this.seenOverwrite = seenOverwrite;
+            this.seen = seen;
+        }
+
+        public ListenableFuture<Seen> getSeen() {
+            return seen;
+        }
+
+        private boolean isExpired() {
+            return SystemClock.elapsedRealtime() - createdAt > MAX_AGE_MILLIS;
+        }
+
+        private synchronized boolean hasBudget() {
+            return bodyCharacters < MAX_BODY_CHARACTERS;
+        }
+
+        private synchronized boolean reserve(final int characters) {
+            if (bodyCharacters + characters > MAX_BODY_CHARACTERS) {
+                return false;
+            }
+            bodyCharacters += characters;
+            return true;
+        }
+    }
+}
@@ -36,6 +36,8 @@ import androidx.lifecycle.ViewModelProvider;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +50,7 @@ import rs.ltt.android.databinding.ActivityComposeBinding;
 import rs.ltt.android.ui.ChipDrawableSpan;
 import rs.ltt.android.ui.ComposeAction;
 import rs.ltt.android.ui.model.ComposeViewModel;
+import rs.ltt.android.util.MainThreadExecutor;
 import rs.ltt.jmap.mua.util.MailToUri;
 
 //TODO handle save instance state
@@ -104,11 +107,24 @@ public class ComposeActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        if (LttrsApplication.get(this).noAccountsConfigured()) {
-            redirectToSetupActivity();
-            finishAffinity();
-            return;
-        }
+        Futures.addCallback(
+                LttrsApplication.get(this).noAccountsConfigured(),
+                new FutureCallback<Boolean>() {
+                    @Override
+                    public void onSuccess(final Boolean noAccountsConfigured) {
+                        if (Boolean.TRUE.equals(noAccountsConfigured) && !isFinishing()) {
+                            redirectToSetupActivity();
+                            finishAffinity();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable throwable) {
+                        LOGGER.error("Unable to check for configured accounts", throwable);
+                    }
+                },
+                MainThreadExecutor.getInstance()
+        );
 
         binding = DataBindingUtil.setContentView(this, R.layout.activity_compose);
 
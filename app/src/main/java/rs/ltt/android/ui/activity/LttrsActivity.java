@@ -20,7 +20,6 @@ import android.animation.AnimatorListenerAdapter;
 import android.app.SearchManager;
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -56,7 +55,6 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
-import rs.ltt.android.LttrsApplication;
 import rs.ltt.android.LttrsNavigationDirections;
 import rs.ltt.android.R;
 import rs.ltt.android.databinding.ActivityLttrsBinding;
@@ -124,9 +122,11 @@ public class LttrsActivity extends AppCompatActivity implements ThreadModifier,
         if (intent != null && intent.hasExtra(EXTRA_ACCOUNT_ID)) {
             accountId = intent.getLongExtra(EXTRA_ACCOUNT_ID, -1);
         } else {
-            final long start = SystemClock.elapsedRealtime();
-            accountId = LttrsApplication.get(this).getMostRecentlySelectedAccountId();
-            LOGGER.warn("Got most recently selected account id from database in {}ms. This should not be happening", (SystemClock.elapsedRealtime() - start));
+            //MainActivity looks up the most recently selected account without blocking the main thread
+            LOGGER.warn("Started without account id. Redirecting to MainActivity");
+            startActivity(new Intent(this, MainActivity.class));
+            finish();
+            return;
         }
 
 
@@ -18,13 +18,18 @@ package rs.ltt.android.ui.activity;
 import android.os.Bundle;
 import android.os.SystemClock;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import rs.ltt.android.LttrsApplication;
+import rs.ltt.android.util.MainThreadExecutor;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -34,13 +39,27 @@ public class MainActivity extends AppCompatActivity {
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         final long start = SystemClock.elapsedRealtime();
-        final Long accountId = LttrsApplication.get(this).getMostRecentlySelectedAccountId();
-        if (accountId != null) {
-            LttrsActivity.launch(this, accountId);
-        } else {
-            SetupActivity.launch(this);
-        }
-        finish();
-        LOGGER.debug("splash screen was visible for {}ms", (SystemClock.elapsedRealtime() - start));
+        Futures.addCallback(
+                LttrsApplication.get(this).getMostRecentlySelectedAccountId(),
+                new FutureCallback<Long>() {
+                    @Override
+                    public void onSuccess(@Nullable final Long accountId) {
+                        if (accountId != null) {
+                            LttrsActivity.launch(MainActivity.this, accountId);
+                        } else {
+                            SetupActivity.launch(MainActivity.this);
+                        }
+                        finish();
+                        LOGGER.debug("splash screen was visible for {}ms", (SystemClock.elapsedRealtime() - start));
+                    }
+
+                    @Override
+                    public void onFailure(@NonNull final Throwable throwable) {
+                        LOGGER.error("Unable to load accounts", throwable);
+                        finish();
+                    }
+                },
+                MainThreadExecutor.getInstance()
+        );
     }
 }
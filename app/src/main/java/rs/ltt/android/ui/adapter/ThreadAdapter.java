@@ -15,32 +15,53 @@
 
 package rs.ltt.android.ui.adapter;
 
+import android.text.method.LinkMovementMethod;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
 import androidx.databinding.DataBindingUtil;
 import androidx.paging.AsyncPagedListDiffer;
 import androidx.paging.PagedList;
 import androidx.recyclerview.widget.AsyncDifferConfig;
 import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import rs.ltt.android.R;
 import rs.ltt.android.databinding.ItemEmailBinding;
+import rs.ltt.android.databinding.ItemEmailBodyChunkBinding;
 import rs.ltt.android.databinding.ItemEmailHeaderBinding;
 import rs.ltt.android.entity.ExpandedPosition;
 import rs.ltt.android.entity.FullEmail;
 import rs.ltt.android.entity.SubjectWithImportance;
 import rs.ltt.android.ui.BindingAdapters;
+import rs.ltt.android.ui.PrecomputedBodyCache;
+import rs.ltt.android.util.MainThreadExecutor;
 import rs.ltt.android.util.Touch;
 
 public class ThreadAdapter extends RecyclerView.Adapter<ThreadAdapter.AbstractThreadItemViewHolder> {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThreadAdapter.class);
+
     private static final DiffUtil.ItemCallback<FullEmail> ITEM_CALLBACK = new DiffUtil.ItemCallback<FullEmail>() {
 
         @Override
@@ -56,6 +77,7 @@ public class ThreadAdapter extends RecyclerView.Adapter<ThreadAdapter.AbstractTh
 
     private static final int ITEM_VIEW_TYPE = 1;
     private static final int HEADER_VIEW_TYPE = 2;
+    private static final int CHUNK_VIEW_TYPE = 3;
 
     private SubjectWithImportance subjectWithImportance;
     private Boolean flagged;
@@ -66,6 +88,18 @@ public class ThreadAdapter extends RecyclerView.Adapter<ThreadAdapter.AbstractTh
 
     private final Set<String> expandedItems;
 
+    private final PrecomputedBodyCache bodyCache = PrecomputedBodyCache.getInstance();
+
+    private RecyclerView recyclerView;
+
+    //number of body chunks of emails that have been rendered. The first chunk is part of the email
+    //item; every other chunk of an expanded email is a row of its own
+    private final Map<String, Integer> chunkCounts = new HashMap<>();
+
+    //adapter position of every email; rebuilt lazily after the list or the chunk rows changed
+    private int[] positions;
+    private int itemCount;
+
     public ThreadAdapter(Set<String> expandedItems) {
         this.expandedItems = expandedItems;
     }
@@ -75,7 +109,19 @@ public class ThreadAdapter extends RecyclerView.Adapter<ThreadAdapter.AbstractTh
     //The problem and the solution is described in this github issue: https://github.com/googlesamples/android-architecture-components/issues/375
     //additional documentation on how to implement a AsyncPagedListDiffer can be found here:
     //https://developer.android.com/reference/android/arch/paging/AsyncPagedListDiffer
-    private final AsyncPagedListDiffer<FullEmail> mDiffer = new AsyncPagedListDiffer<>(new OffsetListUpdateCallback<>(this,1), new AsyncDifferConfig.Builder<>(ITEM_CALLBACK).build());
+    private final AsyncPagedListDiffer<FullEmail> mDiffer = new AsyncPagedListDiffer<>(new EmailListUpdateCallback(), new AsyncDifferConfig.Builder<>(ITEM_CALLBACK).build());
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        this.recyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        this.recyclerView = null;
+    }
 
     @NonNull
     @Override
@@ -83,6 +129,8 @@ public class ThreadAdapter extends RecyclerView.Adapter<ThreadAdapter.AbstractTh
         LayoutInflater inflater = LayoutInflater.from(parent.getContext());
         if (viewType == ITEM_VIEW_TYPE) {
             return new ThreadItemViewHolder(DataBindingUtil.inflate(inflater, R.layout.item_email, parent, false));
+        } else if (viewType == CHUNK_VIEW_TYPE) {
+            return new ThreadChunkViewHolder(DataBindingUtil.inflate(inflater, R.layout.item_email_body_chunk, parent, false));
         } else {
             return new ThreadHeaderViewHolder(DataBindingUtil.inflate(inflater, R.layout.item_email_header, parent, false));
         }
@@ -105,39 +153,213 @@ public class ThreadAdapter extends RecyclerView.Adapter<ThreadAdapter.AbstractTh
             Touch.expandTouchArea(headerViewHolder.binding.getRoot(), headerViewHolder.binding.starToggle, 16);
         } else if (holder instanceof ThreadItemViewHolder) {
             final ThreadItemViewHolder itemViewHolder = (ThreadItemViewHolder) holder;
-            final FullEmail email = mDiffer.getItem(position - 1);
-            final boolean lastEmail = mDiffer.getItemCount() == position;
+            final int index = getEmailIndex(position);
+            final FullEmail email = mDiffer.getItem(index);
+            final boolean lastEmail = mDiffer.getItemCount() == index + 1;
             final boolean expanded = email != null && expandedItems.contains(email.id);
+            final boolean chunked = getAdditionalChunkRows(email) > 0;
             itemViewHolder.binding.setExpanded(expanded);
             itemViewHolder.binding.setEmail(email);
-            itemViewHolder.binding.divider.setVisibility(lastEmail ? View.GONE : View.VISIBLE);
+            itemViewHolder.binding.divider.setVisibility(lastEmail || chunked ? View.GONE : View.VISIBLE);
+            itemViewHolder.binding.bodyEnd.setVisibility(chunked ? View.GONE : View.VISIBLE);
             if (expanded) {
                 Touch.expandTouchArea(itemViewHolder.binding.header, itemViewHolder.binding.moreOptions, 8);
+                bindBody(itemViewHolder, itemViewHolder.binding.text, email, 0);
             } else {
                 itemViewHolder.binding.header.setTouchDelegate(null);
+                itemViewHolder.bodyEmailId = null;
             }
-            itemViewHolder.binding.header.setOnClickListener(v -> {
-                if (expandedItems.contains(email.id)) {
-                    expandedItems.remove(email.id);
-                } else {
-                    expandedItems.add(email.id);
-                }
-                notifyItemChanged(position);
-            });
+            itemViewHolder.binding.header.setOnClickListener(v -> toggleExpanded(itemViewHolder, email));
             itemViewHolder.binding.edit.setOnClickListener(v -> onComposeActionTriggered.onEditDraft(email.id));
             itemViewHolder.binding.replyAll.setOnClickListener(v -> onComposeActionTriggered.onReplyAll(email.id));
+        } else if (holder instanceof ThreadChunkViewHolder) {
+            final ThreadChunkViewHolder chunkViewHolder = (ThreadChunkViewHolder) holder;
+            final int index = getEmailIndex(position);
+            final int chunk = position - getPositions()[index];
+            final FullEmail email = mDiffer.getItem(index);
+            final boolean lastEmail = mDiffer.getItemCount() == index + 1;
+            final boolean lastChunk = chunk >= getAdditionalChunkRows(email);
+            chunkViewHolder.binding.bodyEnd.setVisibility(lastChunk ? View.VISIBLE : View.GONE);
+            chunkViewHolder.binding.divider.setVisibility(lastChunk && !lastEmail ? View.VISIBLE : View.GONE);
+            if (email == null) {
+                chunkViewHolder.bodyEmailId = null;
+                chunkViewHolder.binding.text.setText(null);
+            } else {
+                bindBody(chunkViewHolder, chunkViewHolder.binding.text, email, chunk);
+            }
         }
 
     }
 
+    private void toggleExpanded(final ThreadItemViewHolder holder, final FullEmail email) {
+        final int position = holder.getAdapterPosition();
+        if (position == RecyclerView.NO_POSITION) {
+            return;
+        }
+        final boolean expanded = !expandedItems.contains(email.id);
+        if (expanded) {
+            expandedItems.add(email.id);
+        } else {
+            expandedItems.remove(email.id);
+        }
+        final Integer chunkCount = chunkCounts.get(email.id);
+        final int additionalRows = chunkCount == null ? 0 : Math.max(0, chunkCount - 1);
+        positions = null;
+        notifyItemChanged(position);
+        if (additionalRows > 0) {
+            if (expanded) {
+                notifyItemRangeInserted(position + 1, additionalRows);
+            } else {
+                notifyItemRangeRemoved(position + 1, additionalRows);
+            }
+        }
+    }
+
+    /**
+     * Bodies are rendered and measured in the background, one chunk at a time. The preview is
+     * shown until the first chunk is available. The number of chunks only becomes known once the
+     * body has been split; the chunk rows are inserted after the fact.
+     */
+    private void bindBody(final AbstractThreadItemViewHolder holder, final TextView textView, final FullEmail email, final int chunk) {
+        final PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(textView);
+        final int width = getTextWidth(textView);
+        holder.bodyEmailId = email.id;
+        holder.bodyChunk = chunk;
+        if (chunk == 0 && !chunkCounts.containsKey(email.id)) {
+            requestChunkCount(email);
+        }
+        final PrecomputedTextCompat cached = bodyCache.getIfPresent(textView.getContext(), email.getAccountId(), email.id, chunk, width, params);
+        if (cached != null) {
+            TextViewCompat.setPrecomputedText(textView, cached);
+            return;
+        }
+        textView.setText(chunk == 0 ? email.getPreview() : null);
+        final ListenableFuture<PrecomputedTextCompat> future = bodyCache.get(textView.getContext(), email, chunk, width, params);
+        Futures.addCallback(future, new FutureCallback<PrecomputedTextCompat>() {
+            @Override
+            public void onSuccess(final PrecomputedTextCompat text) {
+                if (email.id.equals(holder.bodyEmailId) && chunk == holder.bodyChunk && params.equals(TextViewCompat.getTextMetricsParams(textView))) {
+                    TextViewCompat.setPrecomputedText(textView, text);
+                }
+            }
+
+            @Override
+            public void onFailure(@NonNull final Throwable throwable) {
+                LOGGER.warn("Unable to render chunk {} of {}", chunk, email.id, throwable);
+            }
+        }, MainThreadExecutor.getInstance());
+    }
+
+    //the result is always delivered in a later main loop iteration; rows must not be inserted while binding
+    private void requestChunkCount(final FullEmail email) {
+        Futures.addCallback(bodyCache.getChunkCount(email), new FutureCallback<Integer>() {
+            @Override
+            public void onSuccess(final Integer count) {
+                setChunkCount(email.id, count);
+            }
+
+            @Override
+            public void onFailure(@NonNull final Throwable throwable) {
+                LOGGER.warn("Unable to split body of {}", email.id, throwable);
+            }
+        }, MainThreadExecutor.getInstance());
+    }
+
+    private void setChunkCount(final String emailId, final int count) {
+        final Integer previous = chunkCounts.put(emailId, count);
+        final int before = previous == null ? 0 : Math.max(0, previous - 1);
+        final int after = Math.max(0, count - 1);
+        if (before == after || !expandedItems.contains(emailId)) {
+            return;
+        }
+        positions = null;
+        final int index = indexOf(emailId);
+        if (index < 0) {
+            return;
+        }
+        final int position = getPositions()[index];
+        notifyItemRangeChanged(position, 1 + Math.min(before, after));
+        if (after > before) {
+            notifyItemRangeInserted(position + 1 + before, after - before);
+        } else {
+            notifyItemRangeRemoved(position + 1 + after, before - after);
+        }
+    }
+
+    private int indexOf(final String emailId) {
+        final PagedList<FullEmail> list = mDiffer.getCurrentList();
+        if (list == null) {
+            return -1;
+        }
+        for (int i = 0; i < list.size(); ++i) {
+            final FullEmail email = list.get(i);
+            if (email != null && emailId.equals(email.id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int getAdditionalChunkRows(@Nullable final FullEmail email) {
+        if (email == null || !expandedItems.contains(email.id)) {
+            return 0;
+        }
+        final Integer count = chunkCounts.get(email.id);
+        return count == null ? 0 : Math.max(0, count - 1);
+    }
+
+    private boolean hasChunkRows() {
+        for (final Map.Entry<String, Integer> entry : chunkCounts.entrySet()) {
+            if (entry.getValue() > 1 && expandedItems.contains(entry.getKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] getPositions() {
+        if (positions == null) {
+            final PagedList<FullEmail> list = mDiffer.getCurrentList();
+            final int count = mDiffer.getItemCount();
+            final int[] positions = new int[count];
+            int position = 1;
+            for (int i = 0; i < count; ++i) {
+                positions[i] = position;
+                position += 1 + getAdditionalChunkRows(list.get(i));
+            }
+            this.positions = positions;
+            this.itemCount = position;
+        }
+        return positions;
+    }
+
+    private int getEmailIndex(final int position) {
+        final int index = Arrays.binarySearch(getPositions(), position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private int getTextWidth(final TextView textView) {
+        final RecyclerView recyclerView = this.recyclerView;
+        if (recyclerView == null || !(textView.getLayoutParams() instanceof ViewGroup.MarginLayoutParams)) {
+            return 0;
+        }
+        final ViewGroup.MarginLayoutParams layoutParams = (ViewGroup.MarginLayoutParams) textView.getLayoutParams();
+        return recyclerView.getWidth() - layoutParams.leftMargin - layoutParams.rightMargin
+                - textView.getPaddingLeft() - textView.getPaddingRight();
+    }
+
     @Override
     public int getItemCount() {
-        return mDiffer.getItemCount() + 1;
+        getPositions();
+        return itemCount;
     }
 
     @Override
     public int getItemViewType(int position) {
-        return position == 0 ? HEADER_VIEW_TYPE : ITEM_VIEW_TYPE;
+        if (position == 0) {
+            return HEADER_VIEW_TYPE;
+        }
+        return Arrays.binarySearch(getPositions(), position) >= 0 ? ITEM_VIEW_TYPE : CHUNK_VIEW_TYPE;
     }
 
     public void setSubjectWithImportance(SubjectWithImportance subjectWithImportance) {
@@ -167,14 +389,64 @@ public class ThreadAdapter extends RecyclerView.Adapter<ThreadAdapter.AbstractTh
         mDiffer.submitList(pagedList, runnable);
     }
 
-    public void expand(Collection<ExpandedPosition> positions) {
-        for(ExpandedPosition expandedPosition : positions) {
+    public void expand(Collection<ExpandedPosition> expandedPositions) {
+        for(ExpandedPosition expandedPosition : expandedPositions) {
             this.expandedItems.add(expandedPosition.emailId);
         }
+        this.positions = null;
+        if (hasChunkRows()) {
+            notifyDataSetChanged();
+        }
+    }
+
+    //positions reported by the differ are email indices. They only map to adapter positions by a
+    //fixed offset as long as no email is shown with additional chunk rows
+    private class EmailListUpdateCallback implements ListUpdateCallback {
+
+        private final OffsetListUpdateCallback<AbstractThreadItemViewHolder> offsetCallback = new OffsetListUpdateCallback<>(ThreadAdapter.this, 1);
+
+        private boolean isOffsetOnly() {
+            positions = null;
+            if (hasChunkRows()) {
+                notifyDataSetChanged();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            if (isOffsetOnly()) {
+                offsetCallback.onInserted(position, count);
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            if (isOffsetOnly()) {
+                offsetCallback.onRemoved(position, count);
+            }
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            if (isOffsetOnly()) {
+                offsetCallback.onMoved(fromPosition, toPosition);
+            }
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            if (isOffsetOnly()) {
+                offsetCallback.onChanged(position, count, payload);
+            }
+        }
     }
 
     static class AbstractThreadItemViewHolder extends RecyclerView.ViewHolder {
 
+        String bodyEmailId;
+        int bodyChunk;
 
         AbstractThreadItemViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -188,6 +460,18 @@ public class ThreadAdapter extends RecyclerView.Adapter<ThreadAdapter.AbstractTh
         ThreadItemViewHolder(@NonNull ItemEmailBinding binding) {
             super(binding.getRoot());
             this.binding = binding;
+            this.binding.text.setMovementMethod(LinkMovementMethod.getInstance());
+        }
+    }
+
+    static class ThreadChunkViewHolder extends AbstractThreadItemViewHolder {
+
+        private final ItemEmailBodyChunkBinding binding;
+
+        ThreadChunkViewHolder(@NonNull ItemEmailBodyChunkBinding binding) {
+            super(binding.getRoot());
+            this.binding = binding;
+            this.binding.text.setMovementMethod(LinkMovementMethod.getInstance());
         }
     }
 
@@ -25,8 +25,10 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.databinding.DataBindingUtil;
-import androidx.paging.PagedList;
-import androidx.paging.PagedListAdapter;
+import androidx.paging.CombinedLoadStates;
+import androidx.paging.LoadState;
+import androidx.paging.LoadStates;
+import androidx.paging.PagingDataAdapter;
 import androidx.recyclerview.selection.ItemDetailsLookup;
 import androidx.recyclerview.selection.SelectionTracker;
 import androidx.recyclerview.widget.DiffUtil;
@@ -35,8 +37,12 @@ import androidx.recyclerview.widget.RecyclerView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.EnumSet;
+import java.util.List;
 import java.util.concurrent.Future;
 
+import kotlin.Unit;
+
 import rs.ltt.android.R;
 import rs.ltt.android.databinding.ItemThreadOverviewBinding;
 import rs.ltt.android.databinding.ItemThreadOverviewLoadingBinding;
@@ -45,7 +51,7 @@ import rs.ltt.android.entity.ThreadOverviewItem;
 import rs.ltt.android.ui.BindingAdapters;
 import rs.ltt.android.util.Touch;
 
-public class ThreadOverviewAdapter extends PagedListAdapter<ThreadOverviewItem, ThreadOverviewAdapter.AbstractThreadOverviewViewHolder> {
+public class ThreadOverviewAdapter extends PagingDataAdapter<ThreadOverviewItem, ThreadOverviewAdapter.AbstractThreadOverviewViewHolder> {
 
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ThreadOverviewAdapter.class);
@@ -71,9 +77,16 @@ public class ThreadOverviewAdapter extends PagedListAdapter<ThreadOverviewItem,
 
             @Override
             public boolean areContentsTheSame(@NonNull ThreadOverviewItem oldItem, @NonNull ThreadOverviewItem newItem) {
-                return oldItem.equals(newItem);
+                return oldItem.getFingerprint() == newItem.getFingerprint();
+            }
+
+            @Nullable
+            @Override
+            public Object getChangePayload(@NonNull ThreadOverviewItem oldItem, @NonNull ThreadOverviewItem newItem) {
+                return newItem.getChanges(oldItem);
             }
         });
+        addLoadStateListener(this::onLoadStatesChanged);
     }
 
     @NonNull
@@ -96,6 +109,33 @@ public class ThreadOverviewAdapter extends PagedListAdapter<ThreadOverviewItem,
         }
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull AbstractThreadOverviewViewHolder holder, final int position, @NonNull final List<Object> payloads) {
+        final EnumSet<ThreadOverviewItem.Change> changes = EnumSet.noneOf(ThreadOverviewItem.Change.class);
+        for (final Object payload : payloads) {
+            if (payload instanceof EnumSet) {
+                for (final Object change : (EnumSet<?>) payload) {
+                    changes.add((ThreadOverviewItem.Change) change);
+                }
+            } else {
+                changes.clear();
+                break;
+            }
+        }
+        if (changes.isEmpty() || !(holder instanceof ThreadOverviewViewHolder)) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        final ThreadOverviewViewHolder threadOverviewHolder = (ThreadOverviewViewHolder) holder;
+        final ThreadOverviewItem item = getItem(position);
+        if (item == null) {
+            return;
+        }
+        //keyword and mailbox changes don't affect the selection state; skip the background
+        threadOverviewHolder.setThread(item, position);
+        setListeners(threadOverviewHolder, item);
+    }
+
     private void onBindViewHolder(final ThreadOverviewViewHolder threadOverviewHolder, final int position) {
         final ThreadOverviewItem item = getItem(position);
         if (item == null) {
@@ -105,6 +145,17 @@ public class ThreadOverviewAdapter extends PagedListAdapter<ThreadOverviewItem,
         final Context context = threadOverviewHolder.binding.getRoot().getContext();
         threadOverviewHolder.binding.getRoot().setActivated(selected);
         threadOverviewHolder.setThread(item, position);
+        setListeners(threadOverviewHolder, item);
+        if (selected) {
+            threadOverviewHolder.binding.threadLayout.setBackground(ContextCompat.getDrawable(context, R.drawable.selected_background));
+        } else {
+            final TypedValue outValue = new TypedValue();
+            context.getTheme().resolveAttribute(android.R.attr.selectableItemBackground, outValue, true);
+            threadOverviewHolder.binding.threadLayout.setBackgroundResource(outValue.resourceId);
+        }
+    }
+
+    private void setListeners(final ThreadOverviewViewHolder threadOverviewHolder, final ThreadOverviewItem item) {
         threadOverviewHolder.binding.starToggle.setOnClickListener(v -> {
             if (onFlaggedToggled != null) {
                 final boolean target = !item.showAsFlagged();
@@ -127,13 +178,6 @@ public class ThreadOverviewAdapter extends PagedListAdapter<ThreadOverviewItem,
                 selectionTracker.select(item.threadId);
             }
         });
-        if (selected) {
-            threadOverviewHolder.binding.threadLayout.setBackground(ContextCompat.getDrawable(context, R.drawable.selected_background));
-        } else {
-            final TypedValue outValue = new TypedValue();
-            context.getTheme().resolveAttribute(android.R.attr.selectableItemBackground, outValue, true);
-            threadOverviewHolder.binding.threadLayout.setBackgroundResource(outValue.resourceId);
-        }
     }
 
     private void onBindViewHolder(final ThreadOverviewLoadingViewHolder threadOverviewLoadingViewHolder) {
@@ -157,10 +201,23 @@ public class ThreadOverviewAdapter extends PagedListAdapter<ThreadOverviewItem,
         return item.isInMailbox(getImportantMailbox());
     }
 
-    public void setLoading(final boolean loading) {
+    /**
+     * Rows read optimistic keyword and mailbox changes when they are bound; rebinding the parts of
+     * the loaded rows that depend on keywords and mailboxes is enough to show a change.
+     */
+    public void onOverlayChanged() {
+        notifyItemRangeChanged(0, super.getItemCount(), EnumSet.allOf(ThreadOverviewItem.Change.class));
+    }
+
+    private Unit onLoadStatesChanged(final CombinedLoadStates loadStates) {
         final boolean before = isLoading();
-        this.isLoading = loading;
+        if (loadStates.getSource().getRefresh() instanceof LoadState.NotLoading) {
+            this.initialLoadComplete = true;
+        }
+        final LoadStates mediator = loadStates.getMediator();
+        this.isLoading = mediator != null && mediator.getAppend() instanceof LoadState.Loading;
         refreshLoadingIndicator(before);
+        return Unit.INSTANCE;
     }
 
     private void refreshLoadingIndicator(final boolean before) {
@@ -173,21 +230,6 @@ public class ThreadOverviewAdapter extends PagedListAdapter<ThreadOverviewItem,
         return this.isLoading || !initialLoadComplete;
     }
 
-    @Override
-    public void submitList(final PagedList<ThreadOverviewItem> pagedList) {
-        submitList(pagedList, null);
-    }
-
-    @Override
-    public void submitList(final PagedList<ThreadOverviewItem> pagedList, final Runnable runnable) {
-        final boolean before = isLoading();
-        this.initialLoadComplete = true;
-        if (pagedList != null && pagedList.size() == 0) {
-            refreshLoadingIndicator(before);
-        }
-        super.submitList(pagedList, runnable);
-    }
-
     public void setImportantMailbox(Future<MailboxWithRoleAndName> importantMailbox) {
         this.importantMailbox = importantMailbox;
     }
@@ -196,11 +238,6 @@ public class ThreadOverviewAdapter extends PagedListAdapter<ThreadOverviewItem,
         this.selectionTracker = selectionTracker;
     }
 
-    @Override
-    public ThreadOverviewItem getItem(int position) {
-        return super.getItem(position);
-    }
-
     @Override
     public int getItemViewType(int position) {
         return position < super.getItemCount() ? THREAD_ITEM_VIEW_TYPE : LOADING_ITEM_VIEW_TYPE;
@@ -219,6 +256,15 @@ public class ThreadOverviewAdapter extends PagedListAdapter<ThreadOverviewItem,
         return super.getItemCount() + 1;
     }
 
+    /**
+     * @return the thread at the given position or null for placeholders and the loading item.
+     * Unlike getItem() this doesn’t trigger a page load.
+     */
+    @Nullable
+    public ThreadOverviewItem peekThread(final int position) {
+        return position >= 0 && position < super.getItemCount() ? peek(position) : null;
+    }
+
     public boolean isInitialLoad() {
         return !this.initialLoadComplete;
     }
@@ -17,15 +17,13 @@ package rs.ltt.android.ui.adapter;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.paging.PagedList;
+import androidx.paging.ItemSnapshotList;
 import androidx.recyclerview.selection.ItemKeyProvider;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-
 import rs.ltt.android.entity.ThreadOverviewItem;
 
 public class ThreadOverviewItemKeyProvider extends ItemKeyProvider<String> {
@@ -43,7 +41,7 @@ public class ThreadOverviewItemKeyProvider extends ItemKeyProvider<String> {
     @Override
     public String getKey(final int position) {
         LOGGER.info("attempting to get key for position {}", position);
-        final ThreadOverviewItem item = threadOverviewAdapter.getItem(position);
+        final ThreadOverviewItem item = threadOverviewAdapter.peek(position);
         if (item != null) {
             LOGGER.info("thread id {} ", item.threadId);
         }
@@ -52,16 +50,12 @@ public class ThreadOverviewItemKeyProvider extends ItemKeyProvider<String> {
 
     @Override
     public int getPosition(@NonNull String key) {
-        final PagedList<ThreadOverviewItem> currentList = threadOverviewAdapter.getCurrentList();
-        if (currentList == null) {
-            return RecyclerView.NO_POSITION;
-        }
-        final int offset = currentList.getPositionOffset();
-        final List<ThreadOverviewItem> snapshot = currentList.snapshot();
+        //the snapshot contains null placeholders for items that haven't been loaded yet
+        final ItemSnapshotList<ThreadOverviewItem> snapshot = threadOverviewAdapter.snapshot();
         int i = 0;
         for (final ThreadOverviewItem item : snapshot) {
             if (item != null && key.equals(item.threadId)) {
-                return offset + i;
+                return i;
             }
             ++i;
         }
@@ -29,7 +29,9 @@ import androidx.appcompat.view.ActionMode;
 import androidx.core.content.ContextCompat;
 import androidx.databinding.DataBindingUtil;
 import androidx.lifecycle.LiveData;
-import androidx.paging.PagedList;
+import androidx.paging.LoadState;
+import androidx.paging.LoadStates;
+import androidx.paging.PagingData;
 import androidx.recyclerview.selection.SelectionPredicates;
 import androidx.recyclerview.selection.SelectionTracker;
 import androidx.recyclerview.selection.StorageStrategy;
@@ -48,14 +50,18 @@ import java.util.UUID;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import kotlin.Unit;
+
 import rs.ltt.android.LttrsNavigationDirections;
 import rs.ltt.android.R;
 import rs.ltt.android.databinding.FragmentThreadListBinding;
 import rs.ltt.android.entity.MailboxWithRoleAndName;
 import rs.ltt.android.entity.ThreadOverviewItem;
 import rs.ltt.android.ui.ActionModeMenuConfiguration;
+import rs.ltt.android.ui.FlingFrameMonitor;
 import rs.ltt.android.ui.ItemAnimators;
 import rs.ltt.android.ui.QueryItemTouchHelper;
+import rs.ltt.android.ui.ThreadPrefetcher;
 import rs.ltt.android.ui.activity.ComposeActivity;
 import rs.ltt.android.ui.adapter.OnFlaggedToggled;
 import rs.ltt.android.ui.adapter.ThreadOverviewAdapter;
@@ -96,6 +102,7 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment implem
             binding.compose.show();
         }
 
+        binding.swipeToRefresh.setOnRefreshListener(threadOverviewAdapter::refresh);
         binding.swipeToRefresh.setColorSchemeResources(R.color.colorAccent);
         binding.swipeToRefresh.setProgressBackgroundColorSchemeColor(
                 ContextCompat.getColor(requireContext(), R.color.colorSurface)
@@ -103,8 +110,10 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment implem
 
 
         ItemAnimators.disableChangeAnimation(binding.threadList.getItemAnimator());
+        FlingFrameMonitor.attach(binding.threadList, getClass().getSimpleName());
+        ThreadPrefetcher.attach(binding.threadList, threadOverviewAdapter, getLttrsViewModel().getAccountId());
 
-        viewModel.isRunningPagingRequest().observe(getViewLifecycleOwner(), threadOverviewAdapter::setLoading);
+        viewModel.getOverlayVersion().observe(getViewLifecycleOwner(), version -> threadOverviewAdapter.onOverlayChanged());
 
         this.itemTouchHelper = new ItemTouchHelper(new QueryItemTouchHelper(this));
         this.itemTouchHelper.attachToRecyclerView(binding.threadList);
@@ -156,25 +165,32 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment implem
         tracker.onRestoreInstanceState(savedInstanceState);
     }
 
-    private void observeThreadOverviewItems(final LiveData<PagedList<ThreadOverviewItem>> liveData) {
+    private void observeThreadOverviewItems(final LiveData<PagingData<ThreadOverviewItem>> liveData) {
         final AtomicBoolean actionModeRefreshed = new AtomicBoolean(false);
-        liveData.observe(getViewLifecycleOwner(), threadOverviewItems -> {
-            final RecyclerView.LayoutManager layoutManager = binding.threadList.getLayoutManager();
-            final boolean atTop;
-            if (layoutManager instanceof LinearLayoutManager) {
-                atTop = ((LinearLayoutManager) layoutManager).findFirstCompletelyVisibleItemPosition() == 0;
-            } else {
-                atTop = false;
-            }
-            configureItemAnimator();
-            threadOverviewAdapter.submitList(threadOverviewItems, () -> {
-                if (atTop && binding != null) {
+        threadOverviewAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(final int positionStart, final int itemCount) {
+                final RecyclerView.LayoutManager layoutManager = binding == null ? null : binding.threadList.getLayoutManager();
+                if (positionStart == 0 && layoutManager instanceof LinearLayoutManager
+                        && ((LinearLayoutManager) layoutManager).findFirstCompletelyVisibleItemPosition() == 0) {
                     binding.threadList.scrollToPosition(0);
                 }
-                if (actionMode != null && actionModeRefreshed.compareAndSet(false, true)) {
-                    actionMode.invalidate();
-                }
-            });
+            }
+        });
+        threadOverviewAdapter.addLoadStateListener(loadStates -> {
+            final LoadStates mediator = loadStates.getMediator();
+            if (binding != null) {
+                binding.swipeToRefresh.setRefreshing(mediator != null && mediator.getRefresh() instanceof LoadState.Loading);
+            }
+            if (loadStates.getSource().getRefresh() instanceof LoadState.NotLoading
+                    && actionMode != null && actionModeRefreshed.compareAndSet(false, true)) {
+                actionMode.invalidate();
+            }
+            return Unit.INSTANCE;
+        });
+        liveData.observe(getViewLifecycleOwner(), threadOverviewItems -> {
+            configureItemAnimator();
+            threadOverviewAdapter.submitData(getViewLifecycleOwner().getLifecycle(), threadOverviewItems);
         });
     }
 
@@ -271,7 +287,7 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment implem
 
     @Override
     public QueryItemTouchHelper.Swipable onQueryItemSwipe(int position) {
-        final ThreadOverviewItem item = threadOverviewAdapter.getItem(position);
+        final ThreadOverviewItem item = threadOverviewAdapter.peek(position);
         if (item == null) {
             throw new IllegalStateException("Swipe Item not found");
         }
@@ -285,7 +301,7 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment implem
     @Override
     public void onQueryItemSwiped(final RecyclerView.ViewHolder viewHolder) {
         final int position = viewHolder.getAdapterPosition();
-        final ThreadOverviewItem item = threadOverviewAdapter.getItem(position);
+        final ThreadOverviewItem item = threadOverviewAdapter.peek(position);
         if (item == null) {
             throw new IllegalStateException("Swipe Item not found");
         }
@@ -318,7 +334,6 @@ public abstract class AbstractQueryFragment extends AbstractLttrsFragment implem
     public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
         LOGGER.debug("prepare action mode for {} selected items", tracker.getSelection().size());
         final ActionModeMenuConfiguration.QueryType queryType = getQueryType();
-        getQueryViewModel().getThreadOverviewItems().getValue();
         final ActionModeMenuConfiguration.SelectionInfo selectionInfo = ActionModeMenuConfiguration.SelectionInfo.vote(
                 tracker.getSelection(),
                 threadOverviewAdapter
@@ -17,6 +17,7 @@ package rs.ltt.android.ui.fragment;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -171,6 +172,12 @@ public class ThreadFragment extends AbstractLttrsFragment implements OnFlaggedTo
                         public void onSuccess(final List<ExpandedPosition> expandedPositions) {
                             threadAdapter.expand(expandedPositions);
                             threadAdapter.submitList(fullEmails, () -> {
+                                LOGGER.debug(
+                                        "first emails of thread {} shown after {}ms (prefetched={})",
+                                        threadViewModel.getThreadId(),
+                                        SystemClock.elapsedRealtime() - threadViewModel.createdAt,
+                                        threadViewModel.prefetched
+                                );
                                 final int pos = expandedPositions.get(0).position;
                                 binding.list.scrollToPosition(pos == 0 ? 0 : pos + 1);
                             });
@@ -21,7 +21,9 @@ import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.Transformations;
-import androidx.paging.PagedList;
+import androidx.lifecycle.ViewModelKt;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 import androidx.work.ExistingWorkPolicy;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.WorkManager;
@@ -31,8 +33,15 @@ import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Future;
 
+import kotlinx.coroutines.CompletableJob;
+import kotlinx.coroutines.CoroutineScope;
+import kotlinx.coroutines.CoroutineScopeKt;
+import kotlinx.coroutines.Job;
+import kotlinx.coroutines.JobKt;
+
 import rs.ltt.android.entity.MailboxWithRoleAndName;
 import rs.ltt.android.entity.ThreadOverviewItem;
 import rs.ltt.android.repository.QueryRepository;
@@ -45,9 +54,8 @@ public abstract class AbstractQueryViewModel extends AndroidViewModel {
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractQueryViewModel.class);
 
     final QueryRepository queryRepository;
-    private LiveData<PagedList<ThreadOverviewItem>> threads;
-    private LiveData<Boolean> refreshing;
-    private LiveData<Boolean> runningPagingRequest;
+    private LiveData<PagingData<ThreadOverviewItem>> threads;
+    private CompletableJob queryJob;
     private final ListenableFuture<MailboxWithRoleAndName> important;
 
     AbstractQueryViewModel(@NonNull Application application, final long accountId) {
@@ -57,59 +65,53 @@ public abstract class AbstractQueryViewModel extends AndroidViewModel {
     }
 
     void init() {
-        this.threads = Transformations.switchMap(getQuery(), queryRepository::getThreadOverviewItems);
-        this.refreshing = Transformations.switchMap(getQuery(), queryRepository::isRunningQueryFor);
-        this.runningPagingRequest = Transformations.switchMap(getQuery(), queryRepository::isRunningPagingRequestFor);
+        this.threads = Transformations.switchMap(getQuery(), query -> PagingLiveData.cachedIn(
+                getThreadOverviewItems(query),
+                newQueryScope()
+        ));
         refreshInBackground();
     }
 
-    public LiveData<Boolean> isRefreshing() {
-        final LiveData<Boolean> refreshing = this.refreshing;
-        if (refreshing == null) {
-            throw new IllegalStateException("LiveData for refreshing not initialized. Forgot to call init()?");
+    /**
+     * Pages of the previous query (including outstanding server requests) are dropped as soon as
+     * the query changes.
+     */
+    private CoroutineScope newQueryScope() {
+        final CoroutineScope viewModelScope = ViewModelKt.getViewModelScope(this);
+        if (this.queryJob != null) {
+            this.queryJob.cancel((CancellationException) null);
         }
-        return refreshing;
+        this.queryJob = JobKt.Job(viewModelScope.getCoroutineContext().get(Job.Key));
+        return CoroutineScopeKt.CoroutineScope(viewModelScope.getCoroutineContext().plus(this.queryJob));
     }
 
     public Future<MailboxWithRoleAndName> getImportant() {
         return this.important;
     }
 
-    public LiveData<Boolean> isRunningPagingRequest() {
-        final LiveData<Boolean> paging = this.runningPagingRequest;
-        if (paging == null) {
-            throw new IllegalStateException("LiveData for paging not initialized. Forgot to call init()?");
-        }
-        return paging;
-    }
-
-    public LiveData<PagedList<ThreadOverviewItem>> getThreadOverviewItems() {
-        final LiveData<PagedList<ThreadOverviewItem>> liveData = this.threads;
+    public LiveData<PagingData<ThreadOverviewItem>> getThreadOverviewItems() {
+        final LiveData<PagingData<ThreadOverviewItem>> liveData = this.threads;
         if (liveData == null) {
             throw new IllegalStateException("LiveData for thread items not initialized. Forgot to call init()?");
         }
         return liveData;
     }
 
-    public void onRefresh() {
-        final EmailQuery emailQuery = getQuery().getValue();
-        if (emailQuery != null) {
-            queryRepository.refresh(emailQuery);
-        }
+    public LiveData<Long> getOverlayVersion() {
+        return queryRepository.getOverlayVersion();
     }
 
     public void refreshInBackground() {
-        final EmailQuery emailQuery = getQuery().getValue();
-        if (emailQuery != null && queryRepository.isRefreshing(emailQuery)) {
-            LOGGER.info("Skipping background refresh");
-            return;
-        }
         LOGGER.info("refreshInBackground()");
         final WorkManager workManager = WorkManager.getInstance(getApplication());
         final OneTimeWorkRequest workRequest = getRefreshWorkRequest();
         workManager.enqueueUniqueWork("query", ExistingWorkPolicy.REPLACE, workRequest);
     }
 
+    protected LiveData<PagingData<ThreadOverviewItem>> getThreadOverviewItems(final EmailQuery query) {
+        return queryRepository.getThreadOverviewItems(query);
+    }
+
     protected abstract OneTimeWorkRequest getRefreshWorkRequest();
 
     protected abstract LiveData<EmailQuery> getQuery();
@@ -39,7 +39,6 @@ import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
 
-import rs.ltt.android.LttrsApplication;
 import rs.ltt.android.entity.AccountName;
 import rs.ltt.android.repository.LttrsRepository;
 import rs.ltt.android.repository.MainRepository;
@@ -236,7 +235,6 @@ public class LttrsViewModel extends AndroidViewModel {
 
     public void setSelectedAccount(long id) {
         this.mainRepository.setSelectedAccount(id);
-        LttrsApplication.get(getApplication()).invalidateMostRecentlySelectedAccountId();
     }
 
     public static class Factory implements ViewModelProvider.Factory {
@@ -24,17 +24,16 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
 import androidx.lifecycle.ViewModel;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.paging.PagingData;
 import androidx.work.OneTimeWorkRequest;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
-import rs.ltt.android.entity.MailboxOverwriteEntity;
 import rs.ltt.android.entity.MailboxWithRoleAndName;
 import rs.ltt.android.entity.ThreadOverviewItem;
 import rs.ltt.android.worker.SearchQueryRefreshWorker;
 import rs.ltt.jmap.common.entity.Role;
 import rs.ltt.jmap.common.entity.query.EmailQuery;
-import rs.ltt.jmap.mua.util.MailboxUtil;
 import rs.ltt.jmap.mua.util.StandardQueries;
 
 public class SearchQueryViewModel extends AbstractQueryViewModel {
@@ -58,6 +57,11 @@ public class SearchQueryViewModel extends AbstractQueryViewModel {
     }
 
 
+    @Override
+    protected LiveData<PagingData<ThreadOverviewItem>> getThreadOverviewItems(final EmailQuery query) {
+        return queryRepository.getSearchResults(query, searchTerm);
+    }
+
     @Override
     protected OneTimeWorkRequest getRefreshWorkRequest() {
         return new OneTimeWorkRequest.Builder(SearchQueryRefreshWorker.class)
@@ -71,17 +75,17 @@ public class SearchQueryViewModel extends AbstractQueryViewModel {
     }
 
     public boolean isInInbox(ThreadOverviewItem item) {
-        if (MailboxOverwriteEntity.hasOverwrite(item.mailboxOverwriteEntities, Role.ARCHIVE)) {
+        if (item.hasMailboxOverwrite(Role.ARCHIVE)) {
             return false;
         }
-        if (MailboxOverwriteEntity.hasOverwrite(item.mailboxOverwriteEntities, Role.INBOX)) {
+        if (item.hasMailboxOverwrite(Role.INBOX)) {
             return true;
         }
         MailboxWithRoleAndName inbox = getInbox();
         if (inbox == null) {
             return false;
         }
-        return MailboxUtil.anyIn(item.emails, inbox.id);
+        return item.getMailboxIds().contains(inbox.id);
     }
 
     private MailboxWithRoleAndName getInbox() {
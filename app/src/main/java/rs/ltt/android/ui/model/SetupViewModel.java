@@ -48,7 +48,6 @@ import javax.net.ssl.SSLPeerUnverifiedException;
 
 import okhttp3.HttpUrl;
 import rs.ltt.android.BuildConfig;
-import rs.ltt.android.LttrsApplication;
 import rs.ltt.android.R;
 import rs.ltt.android.repository.MainRepository;
 import rs.ltt.android.util.Event;
@@ -295,11 +294,14 @@ public class SetupViewModel extends AndroidViewModel {
                     session.getPrimaryAccount(MailAccountCapability.class),
                     accounts
             );
-            Futures.addCallback(insertFuture, new FutureCallback<Long>() {
+            final ListenableFuture<Long> selectFuture = Futures.transformAsync(
+                    insertFuture,
+                    id -> Futures.transform(mainRepository.setSelectedAccount(id), v -> id, MoreExecutors.directExecutor()),
+                    MoreExecutors.directExecutor()
+            );
+            Futures.addCallback(selectFuture, new FutureCallback<Long>() {
                 @Override
                 public void onSuccess(@Nullable Long id) {
-                    LttrsApplication.get(getApplication()).invalidateMostRecentlySelectedAccountId();
-                    mainRepository.setSelectedAccount(id);
                     setupComplete.postValue(new Event<>(id));
                 }
 
@@ -16,6 +16,7 @@
 package rs.ltt.android.ui.model;
 
 import android.app.Application;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -31,6 +32,7 @@ import androidx.work.Data;
 import androidx.work.WorkInfo;
 import androidx.work.WorkManager;
 
+import com.google.common.collect.ForwardingSet;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -40,9 +42,11 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -54,6 +58,7 @@ import rs.ltt.android.entity.Seen;
 import rs.ltt.android.entity.SubjectWithImportance;
 import rs.ltt.android.entity.ThreadHeader;
 import rs.ltt.android.repository.ThreadViewRepository;
+import rs.ltt.android.ui.ThreadPrefetcher;
 import rs.ltt.android.util.CombinedListsLiveData;
 import rs.ltt.android.util.Event;
 import rs.ltt.jmap.common.entity.Role;
@@ -65,7 +70,9 @@ public class ThreadViewModel extends AndroidViewModel {
     public final AtomicBoolean jumpedToFirstUnread = new AtomicBoolean(false);
     public final ListenableFuture<List<ExpandedPosition>> expandedPositions;
     public final MutableLiveData<Event<Seen>> seenEvent = new MutableLiveData<>();
-    public final HashSet<String> expandedItems = new HashSet<>();
+    public final Set<String> expandedItems = new ExpandedItems();
+    public final long createdAt = SystemClock.elapsedRealtime();
+    public final boolean prefetched;
     private final String threadId;
     private final String label;
     private final ThreadViewRepository threadViewRepository;
@@ -85,10 +92,13 @@ public class ThreadViewModel extends AndroidViewModel {
         this.threadId = threadId;
         this.label = label;
         this.threadViewRepository = new ThreadViewRepository(application, accountId);
+        final ThreadPrefetcher.Prefetch prefetch = ThreadPrefetcher.take(accountId, threadId, this.threadViewRepository.getSeenOverwrite(threadId));
+        this.prefetched = prefetch != null;
+        this.threadViewRepository.touch(threadId);
         final LiveData<ThreadHeader> header = this.threadViewRepository.getThreadHeader(threadId);
         this.emails = this.threadViewRepository.getEmails(threadId);
         this.mailboxes = this.threadViewRepository.getMailboxes(threadId);
-        final ListenableFuture<Seen> seen = this.threadViewRepository.getSeen(threadId);
+        final ListenableFuture<Seen> seen = prefetch != null ? prefetch.getSeen() : this.threadViewRepository.getSeen(threadId);
         this.expandedPositions = Futures.transform(seen, Seen::getExpandedPositions, MoreExecutors.directExecutor());
         Futures.addCallback(seen, new FutureCallback<Seen>() {
             @Override
@@ -261,4 +271,29 @@ public class ThreadViewModel extends AndroidViewModel {
         }
     }
 
+
+    //starts fetching the body of an email as soon as it gets expanded
+    private class ExpandedItems extends ForwardingSet<String> {
+
+        private final Set<String> delegate = new HashSet<>();
+
+        @Override
+        protected Set<String> delegate() {
+            return delegate;
+        }
+
+        @Override
+        public boolean add(final String emailId) {
+            final boolean added = super.add(emailId);
+            if (added) {
+                threadViewRepository.getBody(emailId);
+            }
+            return added;
+        }
+
+        @Override
+        public boolean addAll(@NonNull final Collection<? extends String> collection) {
+            return standardAddAll(collection);
+        }
+    }
 }
@@ -56,7 +56,7 @@ public abstract class AbstractMailboxModificationWorker extends AbstractMuaWorke
             final boolean madeChanges = modify(emails).get();
             if (!madeChanges) {
                 LOGGER.info("No changes were made to thread {}", threadId);
-                database.overwriteDao().revertMailboxOverwrites(threadId);
+                database.getOptimisticOverlay().revertMailboxes(threadId);
             }
             return Result.success();
         } catch (final ExecutionException e) {
@@ -64,7 +64,7 @@ public abstract class AbstractMailboxModificationWorker extends AbstractMuaWorke
             if (shouldRetry(e)) {
                 return Result.retry();
             } else {
-                database.overwriteDao().revertMailboxOverwrites(threadId);
+                database.getOptimisticOverlay().revertMailboxes(threadId);
                 return Result.failure(Failure.of(e.getCause()));
             }
         } catch (InterruptedException e) {
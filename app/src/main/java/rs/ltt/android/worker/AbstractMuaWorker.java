@@ -22,6 +22,8 @@ import androidx.work.Data;
 import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
+import com.google.common.util.concurrent.Futures;
+
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.util.Locale;
@@ -76,11 +78,13 @@ public abstract class AbstractMuaWorker extends Worker {
     }
 
     protected LttrsDatabase getDatabase() {
-        return LttrsDatabase.getInstance(getApplicationContext(), this.account);
+        return LttrsDatabase.getInstance(getApplicationContext(), this.account, this);
     }
 
     protected Mua getMua() {
-        final AccountWithCredentials account = AppDatabase.getInstance(getApplicationContext()).accountDao().getAccount(this.account);
+        final AccountWithCredentials account = Futures.getUnchecked(
+                AppDatabase.getInstance(getApplicationContext()).getAccountRegistry().getAccount(this.account)
+        );
         return Mua.builder()
                 .username(account.username)
                 .password(account.password)
@@ -23,6 +23,7 @@ import androidx.work.WorkerParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import rs.ltt.android.database.InvalidationCoalescer;
 import rs.ltt.jmap.common.entity.query.EmailQuery;
 
 public abstract class AbstractQueryRefreshWorker extends AbstractMuaWorker {
@@ -39,7 +40,7 @@ public abstract class AbstractQueryRefreshWorker extends AbstractMuaWorker {
     @Override
     public Result doWork() {
         LOGGER.info("doWork()");
-        try {
+        try (final InvalidationCoalescer.Session ignored = getDatabase().getInvalidationCoalescer().begin()) {
             getMua().query(getEmailQuery()).get();
             return Result.success();
         } catch (Exception e) {
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.worker;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.WorkerParameters;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import rs.ltt.android.database.LttrsDatabase;
+
+public class BodyStoreGarbageCollectionWorker extends AbstractMuaWorker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BodyStoreGarbageCollectionWorker.class);
+
+    private static final long MIN_AGE = TimeUnit.HOURS.toMillis(1);
+
+    public BodyStoreGarbageCollectionWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        final LttrsDatabase database = getDatabase();
+        final ImmutableSet<String> references = ImmutableSet.copyOf(database.threadAndEmailDao().getBodyReferences());
+        final int deleted = database.getBodyStore().collectGarbage(references, MIN_AGE);
+        LOGGER.info("Deleted {} orphaned bodies. {} bodies still referenced", deleted, references.size());
+        return Result.success();
+    }
+
+    public static Data data(final Long account) {
+        return new Data.Builder()
+                .putLong(ACCOUNT_KEY, account)
+                .build();
+    }
+
+    public static String uniqueWorkName(final Long account) {
+        return String.format(Locale.ENGLISH, "body-store-gc-%d", account);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 Daniel Gultsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rs.ltt.android.worker;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.WorkerParameters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+
+public class CacheRetentionWorker extends AbstractMuaWorker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheRetentionWorker.class);
+
+    public CacheRetentionWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        final int evicted = getDatabase().getCacheRetention().run();
+        LOGGER.info("Cache retention evicted {} threads", evicted);
+        return Result.success();
+    }
+
+    public static Data data(final Long account) {
+        return new Data.Builder()
+                .putLong(ACCOUNT_KEY, account)
+                .build();
+    }
+
+    public static String uniqueWorkName(final Long account) {
+        return String.format(Locale.ENGLISH, "cache-retention-%d", account);
+    }
+}
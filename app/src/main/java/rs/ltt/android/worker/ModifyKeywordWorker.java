@@ -80,7 +80,7 @@ public class ModifyKeywordWorker extends AbstractMuaWorker {
             }
             if (!madeChanges) {
                 LOGGER.info("No changes were made to thread {}", threadId);
-                database.overwriteDao().revertKeywordOverwrites(threadId);
+                database.getOptimisticOverlay().revertKeywords(threadId);
             }
             return Result.success();
         } catch (ExecutionException e) {
@@ -88,7 +88,7 @@ public class ModifyKeywordWorker extends AbstractMuaWorker {
             if (shouldRetry(e)) {
                 return Result.retry();
             } else {
-                database.overwriteDao().revertKeywordOverwrites(threadId);
+                database.getOptimisticOverlay().revertKeywords(threadId);
                 return Result.failure();
             }
         } catch (InterruptedException e) {
@@ -67,7 +67,7 @@ public class MoveToTrashWorker extends AbstractMuaWorker {
             final boolean madeChanges = modify(emails).get();
             if (!madeChanges) {
                 LOGGER.info("No changes were made to threads {}", threadIds);
-                database.overwriteDao().revertMoveToTrashOverwrites(threadIds);
+                database.getOptimisticOverlay().revertMoveToTrash(threadIds);
             }
             return Result.success();
         } catch (ExecutionException e) {
@@ -75,7 +75,7 @@ public class MoveToTrashWorker extends AbstractMuaWorker {
             if (shouldRetry(e)) {
                 return Result.retry();
             } else {
-                database.overwriteDao().revertMoveToTrashOverwrites(threadIds);
+                database.getOptimisticOverlay().revertMoveToTrash(threadIds);
                 return Result.failure();
             }
         } catch (InterruptedException e) {
@@ -0,0 +1,97 @@
+package rs.ltt.android.database;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Sets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * QueryPlanTest can not read the {@link androidx.room.Query} annotations at runtime and checks the
+ * statements listed in an asset instead. This makes sure that list matches the DAOs of
+ * {@link LttrsDatabase}.
+ */
+public class DaoQueriesTest {
+
+    private static final File DATABASE_DIRECTORY = new File("src/main/java/rs/ltt/android/database");
+    private static final File DAO_DIRECTORY = new File(DATABASE_DIRECTORY, "dao");
+    private static final File QUERIES = new File("src/androidTest/assets/dao_queries.txt");
+
+    private static final Pattern DAO = Pattern.compile("public abstract (\\w+Dao) \\w+\\(\\);");
+    private static final Pattern SUPER_CLASS = Pattern.compile("class \\w+ extends (\\w+Dao)\\b");
+    private static final Pattern QUERY = Pattern.compile("@Query\\(\\s*((?:\"(?:\\\\.|[^\"\\\\])*\"\\s*\\+?\\s*)+)\\)");
+    private static final Pattern STRING_LITERAL = Pattern.compile("\"((?:\\\\.|[^\"\\\\])*)\"");
+
+    @Test
+    public void queryListMatchesDaos() throws IOException {
+        final Set<String> declared = new LinkedHashSet<>();
+        final Matcher dao = DAO.matcher(read(new File(DATABASE_DIRECTORY, "LttrsDatabase.java")));
+        while (dao.find()) {
+            addQueries(dao.group(1), declared);
+        }
+        final Set<String> listed = new LinkedHashSet<>();
+        for (final String line : Files.readAllLines(QUERIES.toPath(), Charsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            listed.add(line.startsWith("!") ? line.substring(1) : line);
+        }
+        final Set<String> missing = Sets.difference(declared, listed);
+        final Set<String> stale = Sets.difference(listed, declared);
+        Assert.assertTrue(
+                String.format(
+                        "%s is out of date.\nMissing:\n%s\nNo longer declared:\n%s",
+                        QUERIES,
+                        Joiner.on('\n').join(missing),
+                        Joiner.on('\n').join(stale)
+                ),
+                missing.isEmpty() && stale.isEmpty()
+        );
+    }
+
+    private static void addQueries(final String dao, final Set<String> queries) throws IOException {
+        final String source = read(new File(DAO_DIRECTORY, dao + ".java"));
+        final Matcher query = QUERY.matcher(source);
+        while (query.find()) {
+            final StringBuilder statement = new StringBuilder();
+            final Matcher literal = STRING_LITERAL.matcher(query.group(1));
+            while (literal.find()) {
+                statement.append(unescape(literal.group(1)));
+            }
+            queries.add(statement.toString().trim());
+        }
+        final Matcher superClass = SUPER_CLASS.matcher(source);
+        if (superClass.find()) {
+            addQueries(superClass.group(1), queries);
+        }
+    }
+
+    private static String unescape(final String literal) {
+        final StringBuilder builder = new StringBuilder(literal.length());
+        for (int i = 0; i < literal.length(); ++i) {
+            final char c = literal.charAt(i);
+            if (c == '\\' && i + 1 < literal.length()) {
+                final char escaped = literal.charAt(++i);
+                builder.append(escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped);
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String read(final File file) throws IOException {
+        final List<String> lines = Files.readAllLines(file.toPath(), Charsets.UTF_8);
+        return Joiner.on('\n').join(lines);
+    }
+}
@@ -0,0 +1,89 @@
+package rs.ltt.android.database;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import rs.ltt.android.entity.SearchSuggestionEntity;
+
+public class SearchSuggestionIndexTest {
+
+    private static final Instant NOW = Instant.parse("2021-03-01T12:00:00Z");
+
+    @Test
+    public void frequentSuggestionsRankFirst() {
+        final SearchSuggestionIndex.Index index = SearchSuggestionIndex.Index.of(ImmutableList.of(
+                suggestion("invoice", 1, NOW),
+                suggestion("invitation", 3, NOW),
+                suggestion("holiday", 2, NOW)
+        ));
+        Assert.assertEquals(ImmutableList.of("invitation", "holiday", "invoice"), queries(index.search("", 10)));
+        Assert.assertEquals(ImmutableList.of("invitation", "invoice"), queries(index.search("inv", 10)));
+    }
+
+    @Test
+    public void pastUsesDecay() {
+        final SearchSuggestionIndex.Index index = SearchSuggestionIndex.Index.of(ImmutableList.of(
+                //weighs 4 * 0.5^3 = 0.5
+                suggestion("report 2020", 4, NOW.minus(Duration.ofDays(90))),
+                suggestion("report 2021", 1, NOW),
+                //weighs 4 * 0.5 = 2
+                suggestion("reporting", 4, NOW.minus(Duration.ofDays(30)))
+        ));
+        Assert.assertEquals(ImmutableList.of("reporting", "report 2021", "report 2020"), queries(index.search("report", 10)));
+    }
+
+    @Test
+    public void recordingMovesSuggestionUp() {
+        final SearchSuggestionIndex.Index index = SearchSuggestionIndex.Index.of(ImmutableList.of(
+                suggestion("alpha", 2, NOW.minus(Duration.ofDays(1))),
+                suggestion("alphabet", 1, NOW.minus(Duration.ofDays(1)))
+        ));
+        index.record("alphabet", NOW);
+        Assert.assertEquals(ImmutableList.of("alphabet", "alpha"), queries(index.search("alp", 10)));
+        Assert.assertEquals(2, index.size());
+        Assert.assertTrue(index.search("alphabet", 10).isEmpty());
+    }
+
+    @Test
+    public void recordingAddsNewSuggestion() {
+        final SearchSuggestionIndex.Index index = SearchSuggestionIndex.Index.of(ImmutableList.of(
+                suggestion("meeting notes", 2, NOW.minus(Duration.ofDays(60)))
+        ));
+        index.record("Meetup", NOW);
+        Assert.assertEquals(2, index.size());
+        Assert.assertEquals(ImmutableList.of("Meetup", "meeting notes"), queries(index.search("MEET", 10)));
+        Assert.assertEquals(ImmutableList.of("Meetup"), queries(index.search("tup", 10)));
+    }
+
+    @Test
+    public void exactMatchAndMissingGramsAreNotSuggested() {
+        final SearchSuggestionIndex.Index index = SearchSuggestionIndex.Index.of(ImmutableList.of(
+                suggestion("travel", 1, NOW),
+                suggestion("travel plans", 1, NOW)
+        ));
+        Assert.assertEquals(ImmutableList.of("travel plans"), queries(index.search("travel", 10)));
+        Assert.assertTrue(index.search("xyz", 10).isEmpty());
+        Assert.assertEquals(1, index.search("", 1).size());
+    }
+
+    private static SearchSuggestionEntity suggestion(final String query, final int useCount, final Instant lastUsedAt) {
+        final SearchSuggestionEntity entity = SearchSuggestionEntity.of(query, lastUsedAt);
+        entity.useCount = useCount;
+        return entity;
+    }
+
+    private static List<String> queries(final List<SearchSuggestionEntity> entities) {
+        final List<String> queries = new ArrayList<>();
+        for (final SearchSuggestionEntity entity : entities) {
+            queries.add(entity.query);
+        }
+        return queries;
+    }
+}
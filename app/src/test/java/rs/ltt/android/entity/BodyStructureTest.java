@@ -0,0 +1,104 @@
+package rs.ltt.android.entity;
+
+import com.google.common.base.Strings;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class BodyStructureTest {
+
+    private static final String REPLY = "Sounds good.\n" +
+            "\n" +
+            "On Monday Ash wrote:\n" +
+            "> Shall we meet at 10?\n" +
+            ">> Did you get my last mail?\n" +
+            ">> Asking again.\n" +
+            "> \n" +
+            "> Ash\n";
+
+    @Test
+    public void decodedBlocksMatchParser() {
+        assertSameBlocks(REPLY);
+    }
+
+    @Test
+    public void decodedBlocksMatchParserWithCarriageReturns() {
+        assertSameBlocks(REPLY.replace("\n", "\r\n"));
+    }
+
+    @Test
+    public void plainText() {
+        assertSameBlocks("Just a single line without any quotes");
+    }
+
+    @Test
+    public void historyStartsAtFirstTrailingQuote() {
+        final BodyStructure structure = BodyStructure.decode(BodyStructure.encode("1", REPLY));
+        Assert.assertNotNull(structure);
+        final List<BodyStructure.Block> blocks = structure.getBlocks(REPLY);
+        Assert.assertTrue(structure.getHistoryStart() > 0);
+        for (int i = structure.getHistoryStart(); i < blocks.size(); ++i) {
+            Assert.assertTrue(blocks.get(i).getDepth() > 0);
+        }
+        Assert.assertEquals(0, blocks.get(structure.getHistoryStart() - 1).getDepth());
+    }
+
+    @Test
+    public void splitKeepsTextAndRespectsLength() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 200; ++i) {
+            builder.append("line number ").append(i).append('\n');
+            if (i % 50 == 0) {
+                builder.append("> quoted ").append(i).append('\n');
+            }
+        }
+        final String text = builder.toString();
+        final List<BodyStructure.Block> blocks = BodyStructure.parse(text);
+        final List<BodyStructure.Chunk> chunks = BodyStructure.split(blocks, 256);
+        Assert.assertTrue(chunks.size() > 1);
+        final StringBuilder joined = new StringBuilder();
+        for (final BodyStructure.Chunk chunk : chunks) {
+            int length = 0;
+            for (final BodyStructure.Block block : chunk.getBlocks(blocks)) {
+                length += block.toString().length() + 1;
+                if (joined.length() > 0) {
+                    joined.append('\n');
+                }
+                joined.append(block);
+            }
+            Assert.assertTrue(length <= 256 + 1);
+        }
+        final StringBuilder expected = new StringBuilder();
+        for (final BodyStructure.Block block : blocks) {
+            if (expected.length() > 0) {
+                expected.append('\n');
+            }
+            expected.append(block);
+        }
+        Assert.assertEquals(expected.toString(), joined.toString());
+    }
+
+    @Test
+    public void splitKeepsOverlongLines() {
+        final String line = Strings.repeat("x", 1000);
+        final List<BodyStructure.Block> blocks = BodyStructure.parse(line + "\n" + line);
+        final List<BodyStructure.Chunk> chunks = BodyStructure.split(blocks, 100);
+        Assert.assertEquals(2, chunks.size());
+        Assert.assertEquals(line, chunks.get(0).getBlocks(blocks).get(0).toString());
+    }
+
+    private static void assertSameBlocks(final String text) {
+        final BodyStructure structure = BodyStructure.decode(BodyStructure.encode("1", text));
+        Assert.assertNotNull(structure);
+        Assert.assertEquals("1", structure.getPartId());
+        final List<BodyStructure.Block> expected = BodyStructure.parse(text);
+        final List<BodyStructure.Block> actual = structure.getBlocks(text);
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            Assert.assertEquals(expected.get(i).getDepth(), actual.get(i).getDepth());
+            Assert.assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        }
+    }
+}